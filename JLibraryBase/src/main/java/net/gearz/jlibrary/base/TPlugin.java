@@ -2,6 +2,7 @@ package net.gearz.jlibrary.base;
 
 import com.mongodb.DB;
 import lombok.Getter;
+import net.gearz.jlibrary.base.activerecord.GModel;
 import net.gearz.jlibrary.base.command.TCommandDispatch;
 import net.gearz.jlibrary.base.command.TCommandHandler;
 import net.gearz.jlibrary.base.player.TPlayer;
@@ -17,6 +18,9 @@ import org.bukkit.event.Listener;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The TPlugin class is used to represent a plugin! This will handle all the basics for you!
@@ -27,6 +31,10 @@ public abstract class TPlugin extends JavaPlugin {
      * Player Manager
      */
     private static TPlayerManager playerManager = null;
+    /**
+     * The enabled plugins, which share the executor and write-behind buffer of {@link GModel}
+     */
+    private static final AtomicInteger enabledPlugins = new AtomicInteger();
     @Getter
     private Random random = new Random();
     /**
@@ -82,6 +90,7 @@ public abstract class TPlugin extends JavaPlugin {
      */
     @Override
     public void onEnable() {
+        TPlugin.enabledPlugins.incrementAndGet();
         try {
             this.saveDefaultConfig(); //save the config
             this.commandDispatch = new TCommandDispatch(this); //Create a new command dispatch
@@ -104,13 +113,24 @@ public abstract class TPlugin extends JavaPlugin {
 
     /**
      * When the plugin is disabled, make sure to load the config, because most of the time when I reload the plugin
-     * I mean to access the newest config.
+     * I mean to access the newest config. The database writes that are still pending are flushed, and the last plugin
+     * to be disabled shuts down what {@link GModel} shares between them.
      */
     @Override
     public void onDisable() {
+        boolean last = TPlugin.enabledPlugins.decrementAndGet() == 0;
         this.reloadConfig();
         this.disable();
         this.commandDispatch = null;
+        try {
+            if (!GModel.flushPendingWrites(10, TimeUnit.SECONDS)) this.getLogger().warning("Some database writes did not finish in time!");
+            if (last) {
+                GModel.shutdownWriteBehindBuffer();
+                GModel.shutdownExecutor(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -185,6 +205,20 @@ public abstract class TPlugin extends JavaPlugin {
 
     public abstract String getStorablePrefix();
 
+    /**
+     * Gets an executor that runs tasks on the server thread. Useful for receiving results of asynchronous operations.
+     *
+     * @return The executor
+     */
+    public Executor getMainThreadExecutor() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Bukkit.getScheduler().runTask(TPlugin.this, command);
+            }
+        };
+    }
+
     public DB getMongoDB() {
         return this.getPlayerManager().getDatabase();
     }
@@ -0,0 +1,30 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.lang.reflect.Field;
+
+/**
+ * Decides how {@link GModel} reads, writes and creates models. Set it with
+ * {@link GModel#setAccessorStrategy(AccessorStrategy)} before any model class is used, as accessors are only created
+ * once per class.
+ *
+ * @see ReflectionAccessorStrategy
+ * @see MethodHandleAccessorStrategy
+ */
+public interface AccessorStrategy {
+    /**
+     * Creates an accessor for a field.
+     *
+     * @param field The field, which has already been made accessible.
+     * @return The accessor.
+     */
+    public FieldAccessor accessorFor(Field field);
+
+    /**
+     * Creates an instantiator for a model class.
+     *
+     * @param clazz The model class
+     * @return The instantiator
+     * @throws NoSuchMethodException When the class does not have a {@code (DB, DBObject)} constructor.
+     */
+    public ModelInstantiator instantiatorFor(Class<? extends GModel> clazz) throws NoSuchMethodException;
+}
@@ -6,7 +6,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * AutoIncrement functionality
+ * AutoIncrement functionality. Works on {@link Integer} and {@link Long} fields, values come from a {@link Sequence}.
  */
 @Target(ElementType.FIELD)
 @Retention(RetentionPolicy.RUNTIME)
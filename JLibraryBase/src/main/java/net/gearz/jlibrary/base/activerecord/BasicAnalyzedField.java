@@ -2,16 +2,183 @@ package net.gearz.jlibrary.base.activerecord;
 
 import lombok.*;
 
-import java.lang.reflect.Field;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * A {@link BasicField} that has been analyzed once for its model class. Instances are shared between every model of
+ * the same class through {@link ModelDescriptor}, so they must never hold per-object state.
+ */
 @Data
-@RequiredArgsConstructor
-@EqualsAndHashCode
-@ToString(includeFieldNames = true)
+@EqualsAndHashCode(of = {"key", "field"})
+@ToString(of = {"key", "field"}, includeFieldNames = true)
 public class BasicAnalyzedField {
+    private static final Logger logger = Logger.getLogger(BasicAnalyzedField.class.getName());
+    /**
+     * The key used in the database
+     */
     @NonNull
     private final String key;
+    /**
+     * The field, already made accessible
+     */
     @NonNull
     private final Field field;
-    private Object value;
+    /**
+     * Reads and writes the field, from the {@link AccessorStrategy}
+     */
+    @Getter(AccessLevel.NONE)
+    private final FieldAccessor accessor;
+    /**
+     * Annotated with {@link LinkedObject}
+     */
+    private final boolean linked;
+    /**
+     * Annotated with {@link EmbeddedObject}
+     */
+    private final boolean embedded;
+    /**
+     * Annotated with {@link AutoIncrement}
+     */
+    private final boolean autoIncrement;
+    /**
+     * A {@link Lazy} field
+     */
+    private final boolean lazy;
+    /**
+     * The codec for the type of this field, or null if its values are stored as they are.
+     */
+    private final FieldCodec<Object> codec;
+    /**
+     * A {@link java.util.Collection} field, such as a {@link List} or {@link Set}
+     */
+    private final boolean collection;
+    /**
+     * A {@link Map} field
+     */
+    private final boolean map;
+    /**
+     * The type of the elements of a collection, or of the values of a map. Object when the field is not generic.
+     */
+    private final Class<?> elementType;
+    /**
+     * The codec for {@link #elementType}, or null if the elements are stored as they are.
+     */
+    private final FieldCodec<Object> elementCodec;
+    /**
+     * The class created for an empty collection or map, or null if this is neither.
+     */
+    @Getter(AccessLevel.NONE)
+    private final Class<?> containerType;
+
+    /**
+     * Analyzes a field
+     *
+     * @param key      The database key
+     * @param field    The field
+     * @param strategy Creates the accessor for the field
+     * @throws IllegalArgumentException When the field is a sorted set of elements that are not {@link Comparable}, or a
+     *                                  {@link Lazy} field that is not a {@link LinkedObject}.
+     */
+    BasicAnalyzedField(String key, Field field, AccessorStrategy strategy) {
+        this.key = key;
+        this.field = field;
+        this.linked = field.isAnnotationPresent(LinkedObject.class);
+        this.embedded = field.isAnnotationPresent(EmbeddedObject.class);
+        this.autoIncrement = field.isAnnotationPresent(AutoIncrement.class);
+        this.lazy = Lazy.class.equals(field.getType());
+        if (this.lazy && !this.linked)
+            throw new IllegalArgumentException(field + " is Lazy, so it must be a @LinkedObject");
+        this.codec = CodecRegistry.codecFor(field.getType());
+        this.collection = java.util.Collection.class.isAssignableFrom(field.getType());
+        this.map = Map.class.isAssignableFrom(field.getType());
+        this.elementType = elementTypeOf(field.getGenericType(), this.map ? 1 : 0);
+        this.elementCodec = this.collection || this.map ? CodecRegistry.codecFor(this.elementType) : null;
+        this.containerType = this.collection || this.map ? containerTypeOf(field.getType()) : null;
+        if (this.containerType == TreeSet.class && this.elementType != Object.class && !Comparable.class.isAssignableFrom(this.elementType))
+            throw new IllegalArgumentException(field + " is a sorted set of " + this.elementType.getName() + ", which is not Comparable");
+        this.field.setAccessible(true);
+        this.accessor = strategy.accessorFor(field);
+    }
+
+    /**
+     * Reads this field from a model
+     *
+     * @param model The model
+     * @return The value of the field.
+     */
+    Object get(GModel model) {
+        return this.accessor.get(model);
+    }
+
+    /**
+     * Writes this field on a model
+     *
+     * @param model The model
+     * @param value The new value.
+     */
+    void set(GModel model, Object value) {
+        this.accessor.set(model, value);
+    }
+
+    /**
+     * Creates the value this field should hold when nothing has been set or loaded.
+     *
+     * @return A new empty collection or map of the type of the field, or null for every other type.
+     */
+    Object newEmptyValue() {
+        if (this.containerType == null) return null;
+        if (this.containerType == ArrayList.class) return new ArrayList<>();
+        if (this.containerType == HashMap.class) return new HashMap<>();
+        if (this.containerType == LinkedHashSet.class) return new LinkedHashSet<>();
+        try {
+            return this.containerType.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            logger.log(Level.WARNING, "Cannot create an empty " + this.containerType.getName() + " for " + this.field, e);
+            return null;
+        }
+    }
+
+    /**
+     * Resolves a type argument of the declared type of a field
+     *
+     * @param type  The generic type of the field
+     * @param index The index of the type argument
+     * @return The raw class of the argument, or Object if it cannot be resolved.
+     */
+    private static Class<?> elementTypeOf(Type type, int index) {
+        if (!(type instanceof ParameterizedType)) return Object.class;
+        Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+        if (arguments.length <= index) return Object.class;
+        Type argument = arguments[index];
+        if (argument instanceof WildcardType) argument = ((WildcardType) argument).getUpperBounds()[0];
+        if (argument instanceof ParameterizedType) argument = ((ParameterizedType) argument).getRawType();
+        return argument instanceof Class ? (Class<?>) argument : Object.class;
+    }
+
+    /**
+     * Picks the class to create for a collection or map field. Interfaces get the usual implementation, and concrete
+     * types are created as they are declared.
+     *
+     * @param type The declared type of the field
+     * @return The class, or null if none can be created.
+     */
+    private static Class<?> containerTypeOf(Class<?> type) {
+        if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+            try {
+                type.getConstructor();
+                return type;
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+        if (type.isAssignableFrom(ArrayList.class)) return ArrayList.class;
+        if (type.isAssignableFrom(LinkedHashSet.class)) return LinkedHashSet.class;
+        if (type.isAssignableFrom(TreeSet.class)) return TreeSet.class;
+        if (type.isAssignableFrom(HashMap.class)) return HashMap.class;
+        if (type.isAssignableFrom(TreeMap.class)) return TreeMap.class;
+        return null;
+    }
 }
@@ -0,0 +1,74 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import lombok.Data;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of {@link GModel#saveAll(java.util.Collection)} or {@link GModel#removeAll(java.util.Collection)}.
+ */
+public final class BulkResult {
+    /**
+     * New models that were inserted
+     */
+    @Getter
+    private int inserted = 0;
+    /**
+     * Existing models that were saved
+     */
+    @Getter
+    private int updated = 0;
+    /**
+     * Documents that were removed
+     */
+    @Getter
+    private int removed = 0;
+    /**
+     * The models that could not be written, and why.
+     */
+    private final List<Failure> failures = new ArrayList<>();
+
+    BulkResult() {
+    }
+
+    void addInserted(int amount) {
+        this.inserted += amount;
+    }
+
+    void addUpdated(int amount) {
+        this.updated += amount;
+    }
+
+    void addRemoved(int amount) {
+        this.removed += amount;
+    }
+
+    void addFailure(GModel model, Exception exception) {
+        this.failures.add(new Failure(model, exception));
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(this.failures);
+    }
+
+    /**
+     * Did every model get written?
+     *
+     * @return If there are no failures.
+     */
+    public boolean isSuccessful() {
+        return this.failures.isEmpty();
+    }
+
+    /**
+     * A model that could not be written
+     */
+    @Data
+    public static final class Failure {
+        private final GModel model;
+        private final Exception exception;
+    }
+}
@@ -0,0 +1,28 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps loaded models of this class in a {@link ModelCache}, so looking them up by id or through a
+ * {@link LinkedObject} does not query the database again. Best used for data that is read often and rarely changes.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cached {
+    /**
+     * The most models kept. The least recently used model is dropped first.
+     *
+     * @return The size of the cache.
+     */
+    public int maxSize() default 1000;
+
+    /**
+     * How long a model is kept after it was loaded or saved.
+     *
+     * @return The time in milliseconds, or -1 to keep models until they are pushed out.
+     */
+    public long expireAfterMillis() default -1;
+}
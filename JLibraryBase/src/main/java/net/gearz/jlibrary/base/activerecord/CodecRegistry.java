@@ -0,0 +1,228 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import net.gearz.jlibrary.base.TPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link FieldCodec}s used for {@link BasicField}s. The codec of each field is looked up once, when its class
+ * is first used, so codecs must be registered before that.
+ * <p>
+ * Built in: numbers stored as a different number type (such as float, short and long), char, {@link UUID},
+ * {@link Location}, enums (by name), and arrays of any of these or of other storable values. Types without a codec are
+ * stored as they are.
+ */
+@SuppressWarnings("unchecked")
+public final class CodecRegistry {
+    private static final ConcurrentMap<Class<?>, FieldCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    static {
+        FieldCodec<Integer> integerCodec = new FieldCodec<Integer>() {
+            @Override
+            public Object encode(Integer value) {
+                return value;
+            }
+
+            @Override
+            public Integer decode(Object stored) {
+                return stored instanceof Number ? ((Number) stored).intValue() : null;
+            }
+        };
+        FieldCodec<Long> longCodec = new FieldCodec<Long>() {
+            @Override
+            public Object encode(Long value) {
+                return value;
+            }
+
+            @Override
+            public Long decode(Object stored) {
+                return stored instanceof Number ? ((Number) stored).longValue() : null;
+            }
+        };
+        FieldCodec<Float> floatCodec = new FieldCodec<Float>() {
+            @Override
+            public Object encode(Float value) {
+                return value.doubleValue();
+            }
+
+            @Override
+            public Float decode(Object stored) {
+                return stored instanceof Number ? ((Number) stored).floatValue() : null;
+            }
+        };
+        FieldCodec<Short> shortCodec = new FieldCodec<Short>() {
+            @Override
+            public Object encode(Short value) {
+                return value.intValue();
+            }
+
+            @Override
+            public Short decode(Object stored) {
+                return stored instanceof Number ? ((Number) stored).shortValue() : null;
+            }
+        };
+        FieldCodec<Character> characterCodec = new FieldCodec<Character>() {
+            @Override
+            public Object encode(Character value) {
+                return String.valueOf(value);
+            }
+
+            @Override
+            public Character decode(Object stored) {
+                return stored instanceof String && ((String) stored).length() == 1 ? ((String) stored).charAt(0) : null;
+            }
+        };
+        register(Integer.class, integerCodec);
+        register(int.class, integerCodec);
+        register(Long.class, longCodec);
+        register(long.class, longCodec);
+        register(Float.class, floatCodec);
+        register(float.class, floatCodec);
+        register(Short.class, shortCodec);
+        register(short.class, shortCodec);
+        register(Character.class, characterCodec);
+        register(char.class, characterCodec);
+        register(UUID.class, new FieldCodec<UUID>() {
+            @Override
+            public Object encode(UUID value) {
+                return value.toString();
+            }
+
+            @Override
+            public UUID decode(Object stored) {
+                if (stored instanceof UUID) return (UUID) stored;
+                try {
+                    return UUID.fromString(stored.toString());
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        });
+        register(Location.class, new FieldCodec<Location>() {
+            @Override
+            public Object encode(Location value) {
+                BasicDBObject stored = new BasicDBObject();
+                if (value.getWorld() != null) stored.put("world", value.getWorld().getName());
+                return stored.append("x", value.getX()).append("y", value.getY()).append("z", value.getZ())
+                        .append("pitch", (double) value.getPitch()).append("yaw", (double) value.getYaw());
+            }
+
+            @Override
+            public Location decode(Object stored) {
+                if (stored instanceof String) return TPlugin.parseLocationString((String) stored);
+                if (!(stored instanceof DBObject)) return null;
+                DBObject object = (DBObject) stored;
+                Object x = object.get("x"), y = object.get("y"), z = object.get("z");
+                if (!(x instanceof Number) || !(y instanceof Number) || !(z instanceof Number)) return null;
+                Object world = object.get("world");
+                Location location = new Location(world instanceof String ? Bukkit.getWorld((String) world) : null,
+                        ((Number) x).doubleValue(), ((Number) y).doubleValue(), ((Number) z).doubleValue());
+                Object pitch = object.get("pitch"), yaw = object.get("yaw");
+                if (pitch instanceof Number) location.setPitch(((Number) pitch).floatValue());
+                if (yaw instanceof Number) location.setYaw(((Number) yaw).floatValue());
+                return location;
+            }
+        });
+    }
+
+    private CodecRegistry() {
+    }
+
+    /**
+     * Registers a codec, replacing any codec for the same type.
+     *
+     * @param type  The type of field
+     * @param codec The codec
+     * @param <T>   The type of field
+     */
+    public static <T> void register(Class<T> type, FieldCodec<T> codec) {
+        codecs.put(type, codec);
+    }
+
+    /**
+     * Gets the codec for a type of field
+     *
+     * @param type The type
+     * @return The codec, or null if values of this type are stored as they are.
+     */
+    static FieldCodec<Object> codecFor(Class<?> type) {
+        FieldCodec<?> codec = codecs.get(type);
+        if (codec != null) return (FieldCodec<Object>) codec;
+        if (type.isEnum()) return (FieldCodec<Object>) (FieldCodec<?>) new EnumCodec(type);
+        if (type.isArray() && type != byte[].class) return new ArrayCodec(type.getComponentType());
+        return null;
+    }
+
+    /**
+     * Stores enums by name
+     */
+    private static final class EnumCodec<E extends Enum<E>> implements FieldCodec<E> {
+        private final Class<E> type;
+
+        private EnumCodec(Class<E> type) {
+            this.type = type;
+        }
+
+        @Override
+        public Object encode(E value) {
+            return value.name();
+        }
+
+        @Override
+        public E decode(Object stored) {
+            try {
+                return Enum.valueOf(this.type, stored.toString());
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Stores arrays as lists, using the codec of the component type for each element.
+     */
+    private static final class ArrayCodec implements FieldCodec<Object> {
+        private final Class<?> componentType;
+        private final FieldCodec<Object> componentCodec;
+
+        private ArrayCodec(Class<?> componentType) {
+            this.componentType = componentType;
+            this.componentCodec = codecFor(componentType);
+        }
+
+        @Override
+        public Object encode(Object value) {
+            int length = Array.getLength(value);
+            BasicDBList list = new BasicDBList();
+            for (int i = 0; i < length; i++) {
+                Object element = Array.get(value, i);
+                list.add(element == null || this.componentCodec == null ? element : this.componentCodec.encode(element));
+            }
+            return list;
+        }
+
+        @Override
+        public Object decode(Object stored) {
+            if (!(stored instanceof List)) return null;
+            List list = (List) stored;
+            Object array = Array.newInstance(this.componentType, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Object element = list.get(i);
+                if (element != null && this.componentCodec != null) element = this.componentCodec.decode(element);
+                if (element == null && this.componentType.isPrimitive()) continue;
+                if (element != null && !this.componentType.isPrimitive() && !this.componentType.isInstance(element)) continue;
+                Array.set(array, i, element);
+            }
+            return array;
+        }
+    }
+}
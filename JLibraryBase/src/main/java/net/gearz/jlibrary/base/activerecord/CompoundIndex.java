@@ -0,0 +1,35 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Creates an index on more than one key the first time the model class is used. Use {@link CompoundIndexes} for more
+ * than one of these.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CompoundIndex {
+    /**
+     * The keys, in order. Prefix a key with "-" to make it descending.
+     *
+     * @return The keys.
+     */
+    public String[] keys();
+
+    /**
+     * Unique
+     *
+     * @return If no two documents may have the same values.
+     */
+    public boolean unique() default false;
+
+    /**
+     * Sparse
+     *
+     * @return If documents without the keys are left out of the index.
+     */
+    public boolean sparse() default false;
+}
@@ -0,0 +1,15 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Holds more than one {@link CompoundIndex}
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface CompoundIndexes {
+    public CompoundIndex[] value();
+}
@@ -9,6 +9,6 @@ import java.lang.annotation.Target;
  * Will mark the field to use embedded objects (if it is another model class)
  */
 @Retention(RetentionPolicy.RUNTIME)
-@Target(ElementType.METHOD)
+@Target(ElementType.FIELD)
 public @interface EmbeddedObject {
 }
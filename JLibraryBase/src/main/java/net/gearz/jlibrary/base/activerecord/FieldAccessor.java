@@ -0,0 +1,23 @@
+package net.gearz.jlibrary.base.activerecord;
+
+/**
+ * Reads and writes a single {@link BasicField} on a model. One is created per field when the model class is first
+ * analyzed.
+ */
+public interface FieldAccessor {
+    /**
+     * Reads the field
+     *
+     * @param model The model to read from
+     * @return The current value.
+     */
+    public Object get(GModel model);
+
+    /**
+     * Writes the field
+     *
+     * @param model The model to write to
+     * @param value The new value.
+     */
+    public void set(GModel model, Object value);
+}
@@ -0,0 +1,25 @@
+package net.gearz.jlibrary.base.activerecord;
+
+/**
+ * Converts values of one type to something that can be stored in a document, and back. Register codecs for your own
+ * types with {@link CodecRegistry#register(Class, FieldCodec)}.
+ *
+ * @param <T> The type of the field
+ */
+public interface FieldCodec<T> {
+    /**
+     * Converts a value for the database
+     *
+     * @param value The value, never null
+     * @return A value that can be stored in a document.
+     */
+    public Object encode(T value);
+
+    /**
+     * Converts a value from the database
+     *
+     * @param stored The stored value, never null
+     * @return The value for the field, or null if it cannot be read.
+     */
+    public T decode(Object stored);
+}
@@ -1,19 +1,20 @@
 package net.gearz.jlibrary.base.activerecord;
 
+import com.mongodb.*;
+import lombok.AccessLevel;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 import org.bson.types.ObjectId;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Models you create should extend this class
@@ -24,14 +25,49 @@ import java.util.Map;
  */
 @SuppressWarnings({"UnusedDeclaration", "unchecked"})
 @EqualsAndHashCode(of = {"objectId"}, doNotUseGetters = true)
-@ToString(includeFieldNames = false)
+@ToString(includeFieldNames = false, exclude = {"descriptor", "lastSaved", "loadedKeys", "migratedKeys", "pendingUpgrade", "laneKey"})
 public abstract class GModel {
+    /**
+     * The most documents sent in one request by {@link #saveAll(java.util.Collection)} and
+     * {@link #removeAll(java.util.Collection)}
+     */
+    private static final int BULK_SIZE = 500;
+
+    private static final Logger logger = Logger.getLogger(GModel.class.getName());
+
     /**
      * This is the database that the GearzModel will operate in
      */
     @Setter
     private static DB defaultDatabase;
 
+    /**
+     * How fields are read and written, and how models are created. Must be set before the first model is used.
+     */
+    @Setter
+    @Getter(AccessLevel.PACKAGE)
+    private static AccessorStrategy accessorStrategy = new ReflectionAccessorStrategy();
+
+    /**
+     * Runs the asynchronous operations. Created with default settings on first use unless one is set.
+     */
+    private static ModelExecutor executor;
+
+    /**
+     * The executor was created here, not set with {@link #setExecutor(ModelExecutor)}
+     */
+    private static boolean defaultExecutor;
+
+    /**
+     * Holds the dirty {@link WriteBehind} models. Created with default settings on first use unless one is set.
+     */
+    private static WriteBehindBuffer writeBehindBuffer;
+
+    /**
+     * The buffer was created here, not set with {@link #setWriteBehindBuffer(WriteBehindBuffer)}
+     */
+    private static boolean defaultWriteBehindBuffer;
+
     /**
      * The ID of this object. Is null by default
      */
@@ -53,6 +89,37 @@ public abstract class GModel {
      */
     private BasicDBObjectBuilder basicDBObjectBuilder;
 
+    /**
+     * The cached reflection data for this class
+     */
+    private final ModelDescriptor descriptor = ModelDescriptor.forClass(this.getClass());
+
+    /**
+     * The document as it was last loaded or saved. Used to only send what has changed.
+     */
+    private DBObject lastSaved;
+
+    /**
+     * The keys that were loaded, if only some were selected by a {@link ModelQuery}. Other keys are never saved.
+     */
+    private Set<String> loadedKeys;
+
+    /**
+     * Keys that a {@link SchemaMigration} removed from the loaded document. They are unset on the next save.
+     */
+    private Set<String> migratedKeys;
+
+    /**
+     * The upgraded document, until it is written back for a {@link SchemaVersion#writeBack()} class.
+     */
+    private DBObject pendingUpgrade;
+
+    /**
+     * Picks the lane of the {@link ModelExecutor}. Fixed the first time an operation is submitted, so operations queued
+     * before and after this model gets its id stay in order.
+     */
+    private final AtomicReference<Integer> laneKey = new AtomicReference<>();
+
     /**
      * Creates a {@link GModel} with default values
      */
@@ -84,22 +151,106 @@ public abstract class GModel {
     public GModel(DB database, DBObject dBobject) {
         this.database = database;
         this.objectId = (ObjectId) dBobject.get("_id");
+        this.lastSaved = dBobject;
         loadCollection();
-        List<BasicAnalyzedField> allFields = getAllFields();
-        for (BasicAnalyzedField analyzedField : allFields) {
-            if (!dBobject.containsField(analyzedField.getKey())) {
-                setupEmptyField(analyzedField.getField());
-            }
-            Object o = dBobject.get(analyzedField.getKey());
-            o = readObjectFromDB(o);
-            try {
-                analyzedField.getField().set(this, o);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace(); //TODO remove this
+        DBObject upgraded = this.descriptor.migrate(dBobject);
+        if (upgraded != null) {
+            upgraded(dBobject, upgraded);
+            dBobject = upgraded;
+        }
+        LinkBatch batch = LinkBatch.open();
+        try {
+            for (BasicAnalyzedField analyzedField : this.descriptor.getFields()) {
+                Object o;
+                if (analyzedField.isLazy()) {
+                    o = readLazy(dBobject.get(analyzedField.getKey()));
+                } else if (dBobject.containsField(analyzedField.getKey())) {
+                    o = readField(analyzedField, dBobject.get(analyzedField.getKey()));
+                } else {
+                    o = analyzedField.newEmptyValue();
+                }
+                if (o instanceof LinkBatch.PendingLink) {
+                    ((LinkBatch.PendingLink) o).fillField(this, analyzedField);
+                    o = null;
+                }
+                if (o == null && analyzedField.getField().getType().isPrimitive()) continue;
+                analyzedField.set(this, o);
             }
+        } finally {
+            batch.close();
         }
     }
 
+    /**
+     * Starts a query on a model class, in the default database.
+     *
+     * @param clazz The model class
+     * @param <T>   The model class
+     * @return A new query, which matches everything until conditions are added.
+     */
+    public static <T extends GModel> ModelQuery<T> query(Class<T> clazz) {
+        return query(clazz, GModel.defaultDatabase);
+    }
+
+    /**
+     * Starts a query on a model class.
+     *
+     * @param clazz    The model class
+     * @param database The database
+     * @param <T>      The model class
+     * @return A new query, which matches everything until conditions are added.
+     */
+    public static <T extends GModel> ModelQuery<T> query(Class<T> clazz, DB database) {
+        return new ModelQuery<>(clazz, database);
+    }
+
+    /**
+     * Registers a migration for a model class. Must be registered before documents of the class are loaded.
+     *
+     * @param clazz       The model class
+     * @param fromVersion The {@link SchemaVersion} the migration upgrades from; it upgrades to the next one.
+     * @param migration   The migration
+     */
+    public static void registerMigration(Class<? extends GModel> clazz, int fromVersion, SchemaMigration migration) {
+        ModelDescriptor.forClass(clazz).registerMigration(fromVersion, migration);
+    }
+
+    /**
+     * Called when the loaded document was upgraded by {@link SchemaMigration}s. If the class asks for it, the upgrade is
+     * written back by {@link #modelFromOne(Class, DBObject, DB, Set)} once the model is fully loaded, otherwise the next
+     * save writes it.
+     *
+     * @param stored   The stored document
+     * @param upgraded The upgraded document
+     */
+    private void upgraded(DBObject stored, DBObject upgraded) {
+        this.migratedKeys = new HashSet<>(stored.keySet());
+        this.migratedKeys.removeAll(upgraded.keySet());
+        if (this.descriptor.isWriteBack() && this.objectId != null) this.pendingUpgrade = upgraded;
+    }
+
+    /**
+     * Writes back the upgrade of the loaded document, if there is one waiting and the stored document is still at the
+     * version it was loaded at. Never called for partly loaded models, since their upgrade only saw some of the keys.
+     */
+    private void writeBackUpgrade() {
+        DBObject upgraded = this.pendingUpgrade;
+        if (upgraded == null) return;
+        this.pendingUpgrade = null;
+        final DBObject changes = SchemaMigrator.changesBetween(this.lastSaved, upgraded);
+        //Like SchemaMigrator, so a document that another server has migrated since is not overwritten
+        final DBObject query = new BasicDBObject("_id", this.objectId).append("_schema_v", this.lastSaved.get("_schema_v"));
+        this.lastSaved = upgraded;
+        this.migratedKeys = null;
+        getExecutor().submit(this, new Callable<GModel>() {
+            @Override
+            public GModel call() throws Exception {
+                collection.update(query, changes);
+                return GModel.this;
+            }
+        }, null);
+    }
+
     /**
      * Validates the type.
      *
@@ -117,7 +268,10 @@ public abstract class GModel {
                         (o instanceof ObjectId) ||
                         (o instanceof Double) ||
                         (o instanceof Character) ||
-                        (o instanceof Short)
+                        (o instanceof Short) ||
+                        (o instanceof Date) ||
+                        (o instanceof UUID) ||
+                        (o instanceof byte[])
                 ;
     }
 
@@ -130,51 +284,87 @@ public abstract class GModel {
      * @return A {@link GModel} or null if there is an error getting the value from the database
      */
     static GModel modelFromOne(Class<? extends GModel> clazz, DBObject one, DB database) {
-        Constructor<? extends GModel> constructor;
-        try {
-            constructor = clazz.getConstructor(DB.class, DBObject.class);
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace(); //TODO remove this
+        return modelFromOne(clazz, one, database, null);
+    }
+
+    /**
+     * Generates a GModel class from the database (read), which may only hold some of the keys
+     *
+     * @param clazz      GModel
+     * @param one        The object
+     * @param database   The database
+     * @param loadedKeys The keys that were loaded, or null if the whole document was.
+     * @return A {@link GModel} or null if there is an error getting the value from the database
+     */
+    static GModel modelFromOne(Class<? extends GModel> clazz, DBObject one, DB database, Set<String> loadedKeys) {
+        ModelInstantiator instantiator = ModelDescriptor.forClass(clazz).getInstantiator();
+        if (instantiator == null) {
+            logger.warning("Cannot load " + clazz.getName() + ", it has no (DB, DBObject) constructor");
             return null;
         }
         GModel gModel;
         try {
-            gModel = constructor.newInstance(database, one);
-        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
-            e.printStackTrace(); //TODO remove this
+            gModel = instantiator.newInstance(database, one);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Cannot load " + clazz.getName() + " from " + one.get("_id"), e);
             return null;
         }
+        if (loadedKeys != null) {
+            gModel.setLoadedKeys(loadedKeys);
+            return gModel;
+        }
+        gModel.writeBackUpgrade();
+        gModel.updateCache();
         return gModel;
     }
 
-    private void setupEmptyField(Field f) {
-        Type type = f.getGenericType();
-        Object setTo = null;
-        if (List.class.isAssignableFrom(f.getType())) {
-            setTo = new ArrayList<>();
-        }
-        if (Map.class.isAssignableFrom(f.getType())) {
-            setTo = new HashMap<>();
-        }
-        if (setTo == null) return;
-        try {
-            f.set(this, setTo);
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+    /**
+     * Gets a model by its id, in the default database. Uses the {@link ModelCache} if the class is {@link Cached}.
+     *
+     * @param clazz The model class
+     * @param id    The id
+     * @param <T>   The model class
+     * @return The model, or null if there is none with that id.
+     */
+    public static <T extends GModel> T findById(Class<T> clazz, ObjectId id) {
+        return findById(clazz, id, GModel.defaultDatabase);
+    }
+
+    /**
+     * Gets a model by its id. Uses the {@link ModelCache} if the class is {@link Cached}.
+     *
+     * @param clazz    The model class
+     * @param id       The id
+     * @param database The database
+     * @param <T>      The model class
+     * @return The model, or null if there is none with that id.
+     */
+    public static <T extends GModel> T findById(Class<T> clazz, ObjectId id, DB database) {
+        ModelDescriptor descriptor = ModelDescriptor.forClass(clazz);
+        if (descriptor.getCache() != null) {
+            GModel cached = descriptor.getCache().get(id);
+            if (cached != null) return clazz.cast(cached);
         }
+        DBObject one = database.getCollection(descriptor.getCollectionName()).findOne(new BasicDBObject("_id", id));
+        if (one == null) return null;
+        return clazz.cast(modelFromOne(clazz, one, database));
+    }
+
+    /**
+     * Gets the cache of a model class
+     *
+     * @param clazz The model class
+     * @return The cache, or null if the class is not {@link Cached}.
+     */
+    public static ModelCache getCache(Class<? extends GModel> clazz) {
+        return ModelDescriptor.forClass(clazz).getCache();
     }
 
     private void setupAllEmptys() {
-        for (Field f : this.getClass().getDeclaredFields()) {
-            f.setAccessible(true);
-            if (!f.isAnnotationPresent(BasicField.class)) continue;
-            try {
-                if (f.get(this) != null) continue;
-            } catch (IllegalAccessException e) {
-                e.printStackTrace(); //TODO remove
-                continue;
-            }
-            setupEmptyField(f);
+        for (BasicAnalyzedField analyzedField : this.descriptor.getFields()) {
+            if (analyzedField.get(this) != null) continue;
+            Object setTo = analyzedField.newEmptyValue();
+            if (setTo != null) analyzedField.set(this, setTo);
         }
     }
 
@@ -182,97 +372,498 @@ public abstract class GModel {
      * Updates the internal variables to be consistent.
      */
     private void updateObjects() {
+        updateObjects(false);
+    }
+
+    /**
+     * Updates the internal variables to be consistent.
+     *
+     * @param example Builds a query by example, so empty {@link AutoIncrement} fields are left out instead of taking
+     *                the next value of their sequence.
+     */
+    private void updateObjects(boolean example) {
         this.basicDBObjectBuilder = new BasicDBObjectBuilder();
-        for (BasicAnalyzedField analyzedField : getAllFields()) {
-            if (!isValidValue(analyzedField.getValue())) continue;
-            this.basicDBObjectBuilder.append(analyzedField.getKey(), analyzedField.getValue());
+        for (BasicAnalyzedField analyzedField : this.descriptor.getFields()) {
+            Object value = analyzedField.get(this);
+            if (value == null && !example && analyzedField.isAutoIncrement()) value = nextSequenceValue(analyzedField);
+            Object o;
+            if (value != null && analyzedField.getCodec() != null) o = analyzedField.getCodec().encode(value);
+            else o = processField(value, analyzedField, analyzedField.getKey());
+            if (!isValidValue(o)) continue;
+            this.basicDBObjectBuilder.append(analyzedField.getKey(), o);
         }
         if (this.objectId != null) {
             this.basicDBObjectBuilder.append("_id", this.objectId);
         }
-        this.basicDBObjectBuilder.append("_class", this.getClass().getName());
-        this.basicDBObjectBuilder.append("_schema_v", "1.0");
+        this.basicDBObjectBuilder.append("_class", this.descriptor.getTypeName());
+        this.basicDBObjectBuilder.append("_schema_v", this.descriptor.getSchemaVersion());
     }
 
     /**
      * Saves the data to the database. Possibly updates it.
+     * Once this model has been loaded or saved, only the keys that have changed since then are sent, and nothing is sent
+     * if there are no changes.
      */
     public void save() {
         DBObject objectValue = this.getObjectValue();
-        WriteResult save = this.collection.save(objectValue);
-        this.objectId = (ObjectId) objectValue.get("_id");
+        if (!this.descriptor.isWriteBehind()) {
+            write(objectValue);
+            return;
+        }
+        try {
+            getWriteBehindBuffer().enqueue(this, objectValue);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write(objectValue);
+        }
     }
 
     /**
-     * Process each field
+     * Writes a document built by {@link #getObjectValue()}
      *
-     * @return All processed fields.
+     * @param objectValue The document
      */
-    private List<BasicAnalyzedField> getAllFields() {
-        ArrayList<BasicAnalyzedField> fields = new ArrayList<>();
-        for (Field f : this.getClass().getDeclaredFields()) {
-            if (!f.isAnnotationPresent(BasicField.class)) continue;
-            BasicField annotation = f.getAnnotation(BasicField.class);
-            BasicAnalyzedField analyzedField = new BasicAnalyzedField((annotation.key().equals("") ? f.getName().toLowerCase() : annotation.key()), f);
-            if (
-                    analyzedField.getKey().equals("_id") ||
-                            analyzedField.getKey().equals("_link_flag") ||
-                            analyzedField.getKey().equals("_class") ||
-                            analyzedField.getKey().equals("_schema_v")
-                    ) continue;
-            f.setAccessible(true);
-            Object o;
+    synchronized void write(DBObject objectValue) {
+        DBObject changes = this.lastSaved == null || this.objectId == null ? null : getChanges(objectValue);
+        if (changes == null) {
+            this.collection.save(objectValue);
+            this.objectId = (ObjectId) objectValue.get("_id");
+        } else if (!changes.keySet().isEmpty()) {
+            WriteResult update = this.collection.update(new BasicDBObject("_id", this.objectId), changes);
+            if (update.getN() == 0) this.collection.save(objectValue); //Removed since we last saw it
+        }
+        this.lastSaved = objectValue;
+        this.migratedKeys = null;
+        updateCache();
+    }
+
+    /**
+     * Gets the key that picks the lane of this model in the {@link ModelExecutor}. It is the hash of the id, or of this
+     * instance if there is no id yet, the first time it is asked for.
+     *
+     * @return The key.
+     */
+    int getLaneKey() {
+        Integer key = this.laneKey.get();
+        if (key != null) return key;
+        ObjectId id = this.objectId;
+        this.laneKey.compareAndSet(null, id == null ? System.identityHashCode(this) : id.hashCode());
+        return this.laneKey.get();
+    }
+
+    /**
+     * Gets the executor for asynchronous operations, creating it if none has been set.
+     *
+     * @return The executor.
+     */
+    public static synchronized ModelExecutor getExecutor() {
+        if (GModel.executor == null) {
+            GModel.executor = new ModelExecutor(4, 1000);
+            GModel.defaultExecutor = true;
+        }
+        return GModel.executor;
+    }
+
+    /**
+     * Sets the executor for asynchronous operations. Must be set before the first asynchronous operation. It is not
+     * shut down by {@link #shutdownExecutor(long, TimeUnit)}, that is up to whoever set it.
+     *
+     * @param executor The executor
+     */
+    public static synchronized void setExecutor(ModelExecutor executor) {
+        GModel.executor = executor;
+        GModel.defaultExecutor = false;
+    }
+
+    /**
+     * Gets the buffer for {@link WriteBehind} models, creating it if none has been set.
+     *
+     * @return The buffer.
+     */
+    public static synchronized WriteBehindBuffer getWriteBehindBuffer() {
+        if (GModel.writeBehindBuffer == null) {
+            GModel.writeBehindBuffer = new WriteBehindBuffer(1000, 10000);
+            GModel.defaultWriteBehindBuffer = true;
+        }
+        return GModel.writeBehindBuffer;
+    }
+
+    /**
+     * Sets the buffer for {@link WriteBehind} models. Must be set before the first one is saved. It is not shut down
+     * by {@link #shutdownWriteBehindBuffer()}, that is up to whoever set it.
+     *
+     * @param writeBehindBuffer The buffer
+     */
+    public static synchronized void setWriteBehindBuffer(WriteBehindBuffer writeBehindBuffer) {
+        GModel.writeBehindBuffer = writeBehindBuffer;
+        GModel.defaultWriteBehindBuffer = false;
+    }
+
+    /**
+     * Writes all dirty {@link WriteBehind} models, then waits for all asynchronous operations to finish.
+     *
+     * @param timeout The most time to wait for asynchronous operations
+     * @param unit    The unit of the timeout
+     * @return If everything finished in time.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    public static boolean flushPendingWrites(long timeout, TimeUnit unit) throws InterruptedException {
+        WriteBehindBuffer buffer;
+        synchronized (GModel.class) {
+            buffer = GModel.writeBehindBuffer;
+        }
+        if (buffer != null) buffer.flush();
+        return flushAsync(timeout, unit);
+    }
+
+    /**
+     * Waits for all asynchronous operations submitted so far to finish.
+     *
+     * @param timeout The most time to wait
+     * @param unit    The unit of the timeout
+     * @return If everything finished in time.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    public static boolean flushAsync(long timeout, TimeUnit unit) throws InterruptedException {
+        ModelExecutor executor;
+        synchronized (GModel.class) {
+            executor = GModel.executor;
+        }
+        return executor == null || executor.flush(timeout, unit);
+    }
+
+    /**
+     * Shuts down the buffer for {@link WriteBehind} models that was created by {@link #getWriteBehindBuffer()},
+     * writing what is left. A new buffer is created if another one is saved afterwards. Every plugin shares this
+     * buffer, so only call this when none of them use it anymore.
+     */
+    public static void shutdownWriteBehindBuffer() {
+        WriteBehindBuffer buffer;
+        synchronized (GModel.class) {
+            if (!GModel.defaultWriteBehindBuffer) return;
+            buffer = GModel.writeBehindBuffer;
+            GModel.writeBehindBuffer = null;
+            GModel.defaultWriteBehindBuffer = false;
+        }
+        if (buffer != null) buffer.shutdown();
+    }
+
+    /**
+     * Shuts down the executor for asynchronous operations that was created by {@link #getExecutor()}, waiting for the
+     * queued ones to finish. A new executor is created if another operation is submitted afterwards. Every plugin
+     * shares this executor, so only call this when none of them use it anymore.
+     *
+     * @param timeout The most time to wait
+     * @param unit    The unit of the timeout
+     * @return If everything finished in time.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    public static boolean shutdownExecutor(long timeout, TimeUnit unit) throws InterruptedException {
+        ModelExecutor executor;
+        synchronized (GModel.class) {
+            if (!GModel.defaultExecutor) return true;
+            executor = GModel.executor;
+            GModel.executor = null;
+            GModel.defaultExecutor = false;
+        }
+        return executor == null || executor.shutdown(timeout, unit);
+    }
+
+    /**
+     * Saves on the {@link ModelExecutor}. The document is built right away on the calling thread, so later changes are
+     * not part of this save. Saves of the same model are applied in order.
+     *
+     * @param callback Called when done, may be null
+     * @return A future for this model.
+     */
+    public Future<GModel> saveAsync(ModelCallback<GModel> callback) {
+        final DBObject objectValue = this.getObjectValue();
+        return getExecutor().submit(this, new Callable<GModel>() {
+            @Override
+            public GModel call() throws Exception {
+                write(objectValue);
+                return GModel.this;
+            }
+        }, callback);
+    }
+
+    public Future<GModel> saveAsync() {
+        return saveAsync(null);
+    }
+
+    /**
+     * {@link #findOne()} on the {@link ModelExecutor}
+     *
+     * @param callback Called with the result, may be null
+     * @return A future for the result.
+     */
+    public Future<GModel> findOneAsync(ModelCallback<GModel> callback) {
+        return getExecutor().submit(this, new Callable<GModel>() {
+            @Override
+            public GModel call() throws Exception {
+                return findOne();
+            }
+        }, callback);
+    }
+
+    /**
+     * {@link #findMany()} on the {@link ModelExecutor}
+     *
+     * @param callback Called with the result, may be null
+     * @return A future for the result.
+     */
+    public Future<List<GModel>> findManyAsync(ModelCallback<List<GModel>> callback) {
+        return getExecutor().submit(this, new Callable<List<GModel>>() {
+            @Override
+            public List<GModel> call() throws Exception {
+                return findMany();
+            }
+        }, callback);
+    }
+
+    /**
+     * {@link #remove()} on the {@link ModelExecutor}
+     *
+     * @param callback Called when done, may be null
+     * @return A future for this model.
+     */
+    public Future<GModel> removeAsync(ModelCallback<GModel> callback) {
+        return getExecutor().submit(this, new Callable<GModel>() {
+            @Override
+            public GModel call() throws Exception {
+                remove();
+                return GModel.this;
+            }
+        }, callback);
+    }
+
+    /**
+     * Saves many models of the same class. New models are inserted in batches and get their ids assigned, existing
+     * models are saved like {@link #save()}.
+     *
+     * @param models The models
+     * @return What was written, and which models failed.
+     */
+    public static BulkResult saveAll(java.util.Collection<? extends GModel> models) {
+        BulkResult result = new BulkResult();
+        DBCollection collection = collectionOf(models);
+        if (collection == null) return result;
+        List<GModel> inserts = new ArrayList<>();
+        List<DBObject> documents = new ArrayList<>();
+        for (GModel model : models) {
             try {
-                o = f.get(this);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace(); //TODO remove this
-                return null;
+                if (model.objectId == null) {
+                    DBObject objectValue = model.getObjectValue();
+                    objectValue.put("_id", new ObjectId());
+                    inserts.add(model);
+                    documents.add(objectValue);
+                    if (inserts.size() < BULK_SIZE) continue;
+                    insertAll(collection, inserts, documents, result);
+                    inserts.clear();
+                    documents.clear();
+                } else {
+                    model.save();
+                    result.addUpdated(1);
+                }
+            } catch (MongoException e) {
+                result.addFailure(model, e);
+            }
+        }
+        if (!inserts.isEmpty()) insertAll(collection, inserts, documents, result);
+        return result;
+    }
+
+    /**
+     * Inserts a batch of new models. If the batch fails, the documents that did not make it are inserted one at a time
+     * to find out which ones failed.
+     */
+    private static void insertAll(DBCollection collection, List<GModel> models, List<DBObject> documents, BulkResult result) {
+        try {
+            collection.insert(documents);
+            for (int i = 0; i < models.size(); i++) {
+                models.get(i).inserted(documents.get(i));
+            }
+            result.addInserted(models.size());
+            return;
+        } catch (MongoException ignored) {
+            //Find out which ones made it below
+        }
+        List<Object> ids = new ArrayList<>();
+        for (DBObject document : documents) {
+            ids.add(document.get("_id"));
+        }
+        Set<Object> written = new HashSet<>();
+        DBCursor cursor = collection.find(new BasicDBObject("_id", new BasicDBObject("$in", ids)), new BasicDBObject("_id", 1));
+        try {
+            for (DBObject object : cursor) {
+                written.add(object.get("_id"));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (int i = 0; i < models.size(); i++) {
+            GModel model = models.get(i);
+            DBObject document = documents.get(i);
+            try {
+                if (!written.contains(document.get("_id"))) collection.insert(document);
+                model.inserted(document);
+                result.addInserted(1);
+            } catch (MongoException e) {
+                result.addFailure(model, e);
             }
-            o = processField(o, f, analyzedField.getKey());
-            analyzedField.setValue(o);
-            fields.add(analyzedField);
         }
-        return fields;
+    }
+
+    /**
+     * Removes many models of the same class, using one request per batch.
+     *
+     * @param models The models
+     * @return What was removed, and which models failed.
+     */
+    public static BulkResult removeAll(java.util.Collection<? extends GModel> models) {
+        BulkResult result = new BulkResult();
+        DBCollection collection = collectionOf(models);
+        if (collection == null) return result;
+        List<GModel> batch = new ArrayList<>();
+        for (GModel model : models) {
+            if (model.objectId == null) continue;
+            batch.add(model);
+            if (batch.size() < BULK_SIZE) continue;
+            removeBatch(collection, batch, result);
+            batch.clear();
+        }
+        if (!batch.isEmpty()) removeBatch(collection, batch, result);
+        return result;
+    }
+
+    private static void removeBatch(DBCollection collection, List<GModel> models, BulkResult result) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (GModel model : models) {
+            ids.add(model.objectId);
+        }
+        try {
+            WriteResult remove = collection.remove(new BasicDBObject("_id", new BasicDBObject("$in", ids)));
+            result.addRemoved(remove.getN());
+            for (GModel model : models) {
+                model.lastSaved = null;
+                if (model.descriptor.getCache() != null) model.descriptor.getCache().invalidate(model.objectId);
+            }
+        } catch (MongoException e) {
+            for (GModel model : models) {
+                result.addFailure(model, e);
+            }
+        }
+    }
+
+    /**
+     * Gets the collection shared by some models
+     *
+     * @param models The models
+     * @return The collection, or null if there are no models.
+     * @throws IllegalArgumentException When the models are not all of the same class.
+     */
+    private static DBCollection collectionOf(java.util.Collection<? extends GModel> models) {
+        GModel first = null;
+        for (GModel model : models) {
+            if (first == null) first = model;
+            else if (!first.getClass().equals(model.getClass()))
+                throw new IllegalArgumentException("All models must be of the same class");
+        }
+        return first == null ? null : first.collection;
+    }
+
+    /**
+     * Called once this model's document has been inserted.
+     *
+     * @param objectValue The document
+     */
+    private void inserted(DBObject objectValue) {
+        this.objectId = (ObjectId) objectValue.get("_id");
+        this.lastSaved = objectValue;
+        updateCache();
+    }
+
+    /**
+     * Marks this model as partly loaded. It is taken out of the cache, only these keys will be saved, and an upgrade by
+     * {@link SchemaMigration}s is not written back.
+     *
+     * @param loadedKeys The keys that were loaded
+     */
+    void setLoadedKeys(Set<String> loadedKeys) {
+        this.loadedKeys = loadedKeys;
+        this.pendingUpgrade = null;
+        if (this.descriptor.getCache() != null) this.descriptor.getCache().evict(this);
+    }
+
+    /**
+     * Puts this model in the cache of its class, unless it was only partly loaded.
+     */
+    private void updateCache() {
+        if (this.descriptor.getCache() == null || this.loadedKeys != null) return;
+        this.descriptor.getCache().put(this);
+    }
+
+    /**
+     * Compares a document against the last loaded or saved one.
+     *
+     * @param objectValue The document that is about to be saved
+     * @return An update with $set and $unset of the changed keys, which is empty if nothing has changed.
+     */
+    private DBObject getChanges(DBObject objectValue) {
+        BasicDBObject set = new BasicDBObject();
+        BasicDBObject unset = new BasicDBObject();
+        for (String key : objectValue.keySet()) {
+            if (key.equals("_id")) continue;
+            if (this.loadedKeys != null && !this.loadedKeys.contains(key)) continue;
+            Object value = objectValue.get(key);
+            if (!sameValue(value, this.lastSaved.get(key))) set.put(key, value);
+        }
+        for (String key : this.lastSaved.keySet()) {
+            if (objectValue.containsField(key)) continue;
+            if (this.descriptor.getField(key) == null && (this.migratedKeys == null || !this.migratedKeys.contains(key)))
+                continue;
+            if (this.loadedKeys != null && !this.loadedKeys.contains(key)) continue;
+            unset.put(key, 1);
+        }
+        BasicDBObject changes = new BasicDBObject();
+        if (!set.isEmpty()) changes.put("$set", set);
+        if (!unset.isEmpty()) changes.put("$unset", unset);
+        return changes;
+    }
+
+    /**
+     * Compares a stored value with the one saved before. Arrays are compared by their contents.
+     */
+    private static boolean sameValue(Object value, Object saved) {
+        if (value instanceof byte[] && saved instanceof byte[]) return Arrays.equals((byte[]) value, (byte[]) saved);
+        return value.equals(saved);
     }
 
     /**
      * Will turn an object within the code into something for the database (that can be read by method below)
      *
      * @param f     The field
-     * @param dbKey The key for the field in the database (used for auto-increments on fields)
+     * @param dbKey The key for the field in the database
      * @return The processed field value.
      */
-    private Object processField(Object o, Field f, String dbKey) {
-        if (o == null) {
-            if (!f.isAnnotationPresent(AutoIncrement.class)) return null;
-            if (!f.getType().equals(Integer.class)) return null;
-            Integer i = 1;
-            DBObject obj = null;
-            while (obj == null || this.collection.findOne(obj) == null) {
-                i++;
-                obj = new BasicDBObject(dbKey, i);
-            }
-            o = i;
-            try {
-                f.set(this, o);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();  //TODO remove this
-                return null;
-            }
+    private Object processField(Object o, BasicAnalyzedField f, String dbKey) {
+        if (o == null) return null;
+        if (o instanceof Lazy) {
+            Lazy lazy = (Lazy) o;
+            if (!f.isLinked()) return null;
+            if (!lazy.isLoaded())
+                return linkReference(ModelDescriptor.forClass(lazy.getModelClass()).getTypeName(), lazy.getObjectId());
+            o = lazy.get();
         }
         if (o instanceof GModel) {
-            if (f.isAnnotationPresent(LinkedObject.class)) {
+            if (f.isLinked()) {
                 ObjectId objectId1 = ((GModel) o).getObjectId();
                 if (objectId1 == null) {
                     ((GModel) o).save();
                     objectId1 = ((GModel) o).getObjectId();
                 }
-                BasicDBObject object = new BasicDBObject();
-                object.put("_class", o.getClass().getName());
-                object.put("_id", objectId1);
-                object.put("_link_flag", true);
-                o = object;
-            } else if (f.isAnnotationPresent(EmbeddedObject.class)) {
+                o = linkReference(((GModel) o).descriptor.getTypeName(), objectId1);
+            } else if (f.isEmbedded()) {
                 o = ((GModel) o).getObjectValue();
             } else {
                 return null;
@@ -281,24 +872,129 @@ public abstract class GModel {
         if (o instanceof Map) {
             o = processMap(f, dbKey, (Map) o);
         }
-        if (o instanceof List) {
-            o = processList(f, dbKey, (List) o);
+        if (o instanceof java.util.Collection) {
+            o = processList(f, dbKey, (java.util.Collection) o);
         }
         return o;
     }
 
-    private DBObject processMap(Field f, String dbKey, Map o) {
+    /**
+     * Takes the next value of the sequence of an {@link AutoIncrement} field, and sets the field to it
+     *
+     * @param f The field
+     * @return The value, or null if the field is not an Integer or Long.
+     * @throws IllegalStateException When the sequence of an Integer field has gone past {@link Integer#MAX_VALUE}.
+     */
+    private Object nextSequenceValue(BasicAnalyzedField f) {
+        Class<?> type = f.getField().getType();
+        if (!type.equals(Integer.class) && !type.equals(Long.class)) return null;
+        long next = Sequence.forField(this.database, this.collection, f.getKey()).next();
+        if (type.equals(Integer.class) && next > Integer.MAX_VALUE)
+            throw new IllegalStateException("The sequence of " + f.getField() + " is past the largest Integer, make it a Long");
+        Object o = type.equals(Integer.class) ? Integer.valueOf((int) next) : Long.valueOf(next);
+        f.set(this, o);
+        return o;
+    }
+
+    /**
+     * Processes an element of a collection or a value of a map, using the codec of the element type if there is one.
+     *
+     * @param o     The element
+     * @param f     The field
+     * @param dbKey The key for the field in the database
+     * @return The processed element.
+     */
+    private Object processElement(Object o, BasicAnalyzedField f, String dbKey) {
+        if (o != null && f.getElementCodec() != null) return f.getElementCodec().encode(o);
+        return processField(o, f, dbKey);
+    }
+
+    /**
+     * Creates the document stored in place of a {@link LinkedObject}
+     *
+     * @param typeName The _class of the linked model
+     * @param objectId The id of the linked model
+     * @return The reference.
+     */
+    private static DBObject linkReference(String typeName, ObjectId objectId) {
+        BasicDBObject object = new BasicDBObject();
+        object.put("_class", typeName);
+        object.put("_id", objectId);
+        object.put("_link_flag", true);
+        return object;
+    }
+
+    private DBObject processMap(BasicAnalyzedField f, String dbKey, Map o) {
         DBObject object = new BasicDBObject();
         for (Object o1 : o.keySet()) {
             if (!(o1 instanceof String)) continue;
             String key = (String) o1;
             Object value = o.get(key);
-            value = processField(value, f, dbKey);
+            value = processElement(value, f, dbKey);
             object.put(key, value);
         }
         return object;
     }
 
+    /**
+     * Reads the stored value of a field into the type it is declared with. Collections and maps are created as the
+     * field declares them, and their elements are read with the codec of the element type.
+     *
+     * @param f The field
+     * @param o The object from the database
+     * @return The value, or a {@link LinkBatch.PendingLink} for a linked model that is not loaded yet.
+     */
+    private Object readField(BasicAnalyzedField f, Object o) {
+        if (o == null) return null;
+        if (f.getCodec() != null) return f.getCodec().decode(o);
+        if (f.isCollection() && o instanceof BasicDBList) {
+            java.util.Collection collection = (java.util.Collection) f.newEmptyValue();
+            if (collection == null) return readObjectFromDB(o);
+            for (Object next : (BasicDBList) o) {
+                Object value = readElement(f, next);
+                if (value instanceof LinkBatch.PendingLink) {
+                    if (collection instanceof List) {
+                        ((LinkBatch.PendingLink) value).fillList((List) collection, collection.size());
+                    } else {
+                        ((LinkBatch.PendingLink) value).fillCollection(collection);
+                        continue;
+                    }
+                    value = null;
+                }
+                collection.add(value);
+            }
+            return collection;
+        }
+        if (f.isMap() && o instanceof DBObject && !(o instanceof BasicDBList) && !((DBObject) o).containsField("_class")) {
+            Map map = (Map) f.newEmptyValue();
+            if (map == null) return readObjectFromDB(o);
+            DBObject dBobject = (DBObject) o;
+            for (String key : dBobject.keySet()) {
+                Object value = readElement(f, dBobject.get(key));
+                if (value instanceof LinkBatch.PendingLink) {
+                    ((LinkBatch.PendingLink) value).fillMap(map, key);
+                    value = null;
+                }
+                map.put(key, value);
+            }
+            return map;
+        }
+        return readObjectFromDB(o);
+    }
+
+    /**
+     * Reads an element of a collection or a value of a map
+     *
+     * @param f The field
+     * @param o The object from the database
+     * @return The element, or a {@link LinkBatch.PendingLink}.
+     */
+    private Object readElement(BasicAnalyzedField f, Object o) {
+        if (o == null) return null;
+        if (f.getElementCodec() != null) return f.getElementCodec().decode(o);
+        return readObjectFromDB(o);
+    }
+
     /**
      * This is used to take a DB object, and read it. It will convert linked objets, embedded objects, and lists of anything.
      *
@@ -312,7 +1008,12 @@ public abstract class GModel {
                 BasicDBList l = (BasicDBList) o;
                 List list = new ArrayList();
                 for (Object next : l) {
-                    list.add(readObjectFromDB(next));
+                    Object value = readObjectFromDB(next);
+                    if (value instanceof LinkBatch.PendingLink) {
+                        ((LinkBatch.PendingLink) value).fillList(list, list.size());
+                        value = null;
+                    }
+                    list.add(value);
                 }
                 o = list;
             } else {
@@ -325,25 +1026,42 @@ public abstract class GModel {
                     }
                     return m;
                 }
-                if (!(aClass instanceof String)) return null;
-                Class c;
-                try {
-                    c = Class.forName((String) aClass);
-                } catch (ClassNotFoundException e) {
-                    e.printStackTrace(); //TODO remove this
-                    return null;
-                }
-                if (!c.isInstance(GModel.class)) return null;
-                GModel m = modelFromOne(c, (DBObject) o, this.database);
+                Class c = modelClassFor(aClass);
+                if (c == null) return null;
                 if (((DBObject) o).containsField("_link_flag")) {
-                    m = m.findOne();
+                    return LinkBatch.current().link(c, (ObjectId) ((DBObject) o).get("_id"), this.database); //Opened in the constructor
                 }
-                o = m;
+                o = modelFromOne(c, (DBObject) o, this.database);
             }
         }
         return o;
     }
 
+    /**
+     * Reads a {@link Lazy} field from the stored reference, without loading the linked model.
+     *
+     * @param o The object from the database
+     * @return The {@link Lazy}, or null if there was no valid reference.
+     */
+    private Lazy readLazy(Object o) {
+        if (!(o instanceof DBObject)) return null;
+        DBObject reference = (DBObject) o;
+        Class c = modelClassFor(reference.get("_class"));
+        if (c == null || !(reference.get("_id") instanceof ObjectId)) return null;
+        return new Lazy(c, (ObjectId) reference.get("_id"), this.database);
+    }
+
+    /**
+     * Gets the model class stored in a _class key
+     *
+     * @param aClass The value of the _class key
+     * @return The class, or null if it is not a {@link GModel} allowed by the {@link ModelRegistry}.
+     */
+    private static Class<? extends GModel> modelClassFor(Object aClass) {
+        if (!(aClass instanceof String)) return null;
+        return ModelRegistry.resolve((String) aClass);
+    }
+
     /**
      * Turns this into a DBObject
      *
@@ -355,15 +1073,37 @@ public abstract class GModel {
     }
 
     /**
-     * Processes a list into a {@link com.mongodb.BasicDBList}
+     * Builds the query used by {@link #findOne()} and {@link #findMany()} from the values of this model. The
+     * _schema_v key is left out, so documents saved at an older {@link SchemaVersion} match and are upgraded when
+     * loaded. If the class has a {@link TypeAlias}, documents stored under its full class name match as well. Empty
+     * {@link AutoIncrement} fields are left out, without taking a value from their sequence.
+     *
+     * @return The query.
+     */
+    private DBObject getExample() {
+        updateObjects(true);
+        DBObject example = this.basicDBObjectBuilder.get();
+        example.removeField("_schema_v");
+        String className = this.getClass().getName();
+        if (!this.descriptor.getTypeName().equals(className)) {
+            BasicDBList names = new BasicDBList();
+            names.add(this.descriptor.getTypeName());
+            names.add(className);
+            example.put("_class", new BasicDBObject("$in", names));
+        }
+        return example;
+    }
+
+    /**
+     * Processes a list or set into a {@link com.mongodb.BasicDBList}
      *
-     * @param l The {@link java.util.List} object
+     * @param l The {@link java.util.Collection} object
      * @return The {@link com.mongodb.BasicDBList} object.
      */
-    private BasicDBList processList(Field f, String dbKey, List l) {
+    private BasicDBList processList(BasicAnalyzedField f, String dbKey, java.util.Collection l) {
         BasicDBList list = new BasicDBList();
         for (Object o : l) {
-            Object o1 = processField(o, f, dbKey);
+            Object o1 = processElement(o, f, dbKey);
             if (!isValidValue(o1)) continue;
             list.add(o1);
         }
@@ -376,8 +1116,7 @@ public abstract class GModel {
      * @return one.
      */
     public GModel findOne() {
-        DBObject objectValue = this.getObjectValue();
-        DBObject one = this.collection.findOne(objectValue);
+        DBObject one = this.collection.findOne(getExample());
         if (one == null) return null;
         GModel gModel = modelFromOne(this.getClass(), one, this.database);
         gModel.database = this.database;
@@ -391,21 +1130,57 @@ public abstract class GModel {
      * @return All objects.
      */
     public List<GModel> findMany() {
-        ArrayList<GModel> models = new ArrayList<>();
-        DBCursor dbObjects = this.collection.find(this.getObjectValue());
-        for (DBObject o : dbObjects) {
-            GModel m = modelFromOne(this.getClass(), o, this.database);
-            models.add(m);
-        }
-        return models;
+        return modelsFromCursor(this.collection.find(getExample()));
     }
 
     public List<GModel> findAll() {
+        return modelsFromCursor(this.collection.find());
+    }
+
+    /**
+     * Finds many from the params supplied, reading them in batches as the cursor is used.
+     *
+     * @param batchSize The amount of documents read at once
+     * @return A cursor over the results, which must be closed if it is not read to the end.
+     */
+    public ModelCursor<GModel> iterateMany(int batchSize) {
+        return new ModelCursor<>((Class<GModel>) this.getClass(), this.collection.find(getExample()), this.database, batchSize);
+    }
+
+    public ModelCursor<GModel> iterateMany() {
+        return iterateMany(ModelCursor.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Reads every model in the collection, in batches as the cursor is used.
+     *
+     * @param batchSize The amount of documents read at once
+     * @return A cursor over the collection, which must be closed if it is not read to the end.
+     */
+    public ModelCursor<GModel> iterateAll(int batchSize) {
+        return new ModelCursor<>((Class<GModel>) this.getClass(), this.collection.find(), this.database, batchSize);
+    }
+
+    public ModelCursor<GModel> iterateAll() {
+        return iterateAll(ModelCursor.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Reads every document of a cursor. Linked objects of all documents are loaded together once the cursor is read.
+     *
+     * @param dbObjects The cursor
+     * @return All models.
+     */
+    private List<GModel> modelsFromCursor(DBCursor dbObjects) {
         ArrayList<GModel> models = new ArrayList<>();
-        DBCursor dbObjects = this.collection.find();
-        for (DBObject o : dbObjects) {
-            GModel m = modelFromOne(this.getClass(), o, this.database);
-            models.add(m);
+        LinkBatch batch = LinkBatch.open();
+        try {
+            for (DBObject o : dbObjects) {
+                GModel m = modelFromOne(this.getClass(), o, this.database);
+                models.add(m);
+            }
+        } finally {
+            batch.close();
         }
         return models;
     }
@@ -414,21 +1189,23 @@ public abstract class GModel {
      * Loads the collection for the constructors.
      */
     private void loadCollection() {
-        String name;
-        if (this.getClass().isAnnotationPresent(Collection.class)) {
-            Collection annotation = this.getClass().getAnnotation(Collection.class);
-            name = annotation.name();
-        } else {
-            name = this.getClass().getSimpleName().toLowerCase();
-            name = name + "s";
-        }
-        this.collection = this.database.getCollection(name);
+        this.collection = this.database.getCollection(this.descriptor.getCollectionName());
+        this.descriptor.ensureIndexes(this.collection);
     }
 
     public void remove() {
+        if (this.descriptor.isWriteBehind()) {
+            try {
+                getWriteBehindBuffer().discard(this);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         if (this.objectId == null) return;
+        if (this.descriptor.getCache() != null) this.descriptor.getCache().invalidate(this.objectId);
         this.collection.remove(
                 new BasicDBObject("_id", this.objectId)
         );
+        this.lastSaved = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Creates an index on a {@link BasicField} the first time the model class is used.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+    /**
+     * Ascending or descending
+     *
+     * @return If the index is ascending.
+     */
+    public boolean ascending() default true;
+
+    /**
+     * Unique
+     *
+     * @return If no two documents may have the same value.
+     */
+    public boolean unique() default false;
+
+    /**
+     * Sparse
+     *
+     * @return If documents without the key are left out of the index.
+     */
+    public boolean sparse() default false;
+
+    /**
+     * Makes this a TTL index. Only works on date fields.
+     *
+     * @return Seconds until a document is removed, or -1 to keep documents forever.
+     */
+    public int expireAfterSeconds() default -1;
+}
@@ -0,0 +1,95 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DB;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.bson.types.ObjectId;
+
+/**
+ * A {@link LinkedObject} that is only loaded the first time it is used. Declare the field as {@code Lazy<YourModel>}
+ * instead of {@code YourModel}, and keep the {@link LinkedObject} annotation; when the model is read only the reference
+ * is kept, and when it is saved the reference is written back without loading the linked model.
+ *
+ * @param <T> The linked model
+ */
+@EqualsAndHashCode(of = {"modelClass", "objectId"})
+@ToString(of = {"modelClass", "objectId", "loaded"})
+public final class Lazy<T extends GModel> {
+    /**
+     * The class of the linked model
+     */
+    private final Class<T> modelClass;
+    /**
+     * The id of the linked document
+     */
+    private final ObjectId objectId;
+    /**
+     * The database to load from
+     */
+    private final DB database;
+    /**
+     * The model, once loaded
+     */
+    private T model;
+    /**
+     * If we've tried to load the model
+     */
+    private volatile boolean loaded;
+
+    Lazy(Class<T> modelClass, ObjectId objectId, DB database) {
+        this.modelClass = modelClass;
+        this.objectId = objectId;
+        this.database = database;
+        this.loaded = false;
+    }
+
+    /**
+     * Wraps a model that is already loaded
+     *
+     * @param model The model
+     * @param <T>   The class of the model
+     * @return A loaded Lazy.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends GModel> Lazy<T> of(T model) {
+        Lazy<T> lazy = new Lazy<>((Class<T>) model.getClass(), null, null);
+        lazy.model = model;
+        lazy.loaded = true;
+        return lazy;
+    }
+
+    /**
+     * Gets the model, loading it if this is the first call.
+     *
+     * @return The model, or null if it no longer exists.
+     */
+    public synchronized T get() {
+        if (this.loaded) return this.model;
+        this.model = GModel.findById(this.modelClass, this.objectId, this.database);
+        this.loaded = true;
+        return this.model;
+    }
+
+    /**
+     * Has the model been loaded?
+     *
+     * @return If {@link #get()} will not query the database.
+     */
+    public boolean isLoaded() {
+        return this.loaded;
+    }
+
+    /**
+     * Gets the id of the linked model, without loading it.
+     *
+     * @return The id.
+     */
+    public ObjectId getObjectId() {
+        if (this.loaded) return this.model == null ? null : this.model.getObjectId();
+        return this.objectId;
+    }
+
+    Class<T> getModelClass() {
+        return this.modelClass;
+    }
+}
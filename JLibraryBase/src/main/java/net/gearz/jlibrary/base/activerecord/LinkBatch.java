@@ -0,0 +1,220 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+/**
+ * Collects {@link LinkedObject} references while documents are read, and then loads them with one $in query per
+ * class instead of one query per reference. Every reference to the same document within a batch gets the same model.
+ * Batches are per-thread and can be nested; the references are loaded when the outermost batch is closed.
+ */
+@SuppressWarnings("unchecked")
+final class LinkBatch {
+    /**
+     * The batch open on each thread
+     */
+    private static final ThreadLocal<LinkBatch> current = new ThreadLocal<>();
+
+    /**
+     * All links seen in this batch, by database and class, then by id.
+     */
+    private final Map<String, Map<ObjectId, PendingLink>> links = new HashMap<>();
+    /**
+     * Links that have not been loaded yet, grouped the same way.
+     */
+    private Map<String, Map<ObjectId, PendingLink>> pending = new HashMap<>();
+    /**
+     * How many times this batch has been opened
+     */
+    private int depth = 0;
+
+    /**
+     * Opens a batch on this thread, or joins the one that is already open. Must always be followed by {@link #close()}.
+     *
+     * @return The batch.
+     */
+    static LinkBatch open() {
+        LinkBatch batch = current.get();
+        if (batch == null) {
+            batch = new LinkBatch();
+            current.set(batch);
+        }
+        batch.depth++;
+        return batch;
+    }
+
+    /**
+     * Gets the batch open on this thread
+     *
+     * @return The batch, or null if none is open.
+     */
+    static LinkBatch current() {
+        return current.get();
+    }
+
+    /**
+     * Closes the batch, loading all references if this was the outermost call to {@link #open()}.
+     */
+    void close() {
+        try {
+            if (this.depth == 1) resolve();
+        } finally {
+            this.depth--;
+            if (this.depth == 0) current.remove();
+        }
+    }
+
+    /**
+     * Registers a reference
+     *
+     * @param clazz    The class of the linked model
+     * @param id       The id of the linked document
+     * @param database The database it is stored in
+     * @return The model if it was already loaded in this batch, otherwise a {@link PendingLink} that will be filled later.
+     */
+    Object link(Class<? extends GModel> clazz, ObjectId id, DB database) {
+        String group = database.getName() + ":" + clazz.getName();
+        Map<ObjectId, PendingLink> byId = this.links.get(group);
+        if (byId == null) {
+            byId = new HashMap<>();
+            this.links.put(group, byId);
+        }
+        PendingLink link = byId.get(id);
+        if (link != null) return link.loaded ? link.model : link;
+        ModelCache cache = ModelDescriptor.forClass(clazz).getCache();
+        GModel cached = cache == null ? null : cache.get(id);
+        if (cached != null) return cached;
+        link = new PendingLink(clazz, id, database);
+        byId.put(id, link);
+        Map<ObjectId, PendingLink> pendingById = this.pending.get(group);
+        if (pendingById == null) {
+            pendingById = new HashMap<>();
+            this.pending.put(group, pendingById);
+        }
+        pendingById.put(id, link);
+        return link;
+    }
+
+    /**
+     * Loads references until there are none left. Loaded models can reference more models, which are loaded in the next
+     * round.
+     */
+    private void resolve() {
+        while (!this.pending.isEmpty()) {
+            Map<String, Map<ObjectId, PendingLink>> round = this.pending;
+            this.pending = new HashMap<>();
+            for (Map<ObjectId, PendingLink> byId : round.values()) {
+                PendingLink first = byId.values().iterator().next();
+                String collectionName = ModelDescriptor.forClass(first.clazz).getCollectionName();
+                DBObject query = new BasicDBObject("_id", new BasicDBObject("$in", new ArrayList<>(byId.keySet())));
+                DBCursor cursor = first.database.getCollection(collectionName).find(query);
+                try {
+                    for (DBObject one : cursor) {
+                        PendingLink link = byId.get(one.get("_id"));
+                        if (link == null) continue;
+                        link.model = GModel.modelFromOne(first.clazz, one, first.database);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                for (PendingLink link : byId.values()) {
+                    link.fill();
+                }
+            }
+        }
+    }
+
+    /**
+     * A reference that has not been loaded yet, and the places it must be put once it has.
+     */
+    static final class PendingLink {
+        private final Class<? extends GModel> clazz;
+        private final ObjectId id;
+        private final DB database;
+        private final List<Slot> slots = new ArrayList<>();
+        private GModel model;
+        private boolean loaded = false;
+
+        private PendingLink(Class<? extends GModel> clazz, ObjectId id, DB database) {
+            this.clazz = clazz;
+            this.id = id;
+            this.database = database;
+        }
+
+        /**
+         * Fill a field once loaded
+         *
+         * @param target The model
+         * @param field  The field
+         */
+        void fillField(final GModel target, final BasicAnalyzedField field) {
+            this.slots.add(new Slot() {
+                @Override
+                void fill(GModel model) {
+                    field.set(target, model);
+                }
+            });
+        }
+
+        /**
+         * Fill a position in a list once loaded
+         *
+         * @param list  The list
+         * @param index The index
+         */
+        void fillList(final List list, final int index) {
+            this.slots.add(new Slot() {
+                @Override
+                void fill(GModel model) {
+                    list.set(index, model);
+                }
+            });
+        }
+
+        /**
+         * Fill a key in a map once loaded
+         *
+         * @param map The map
+         * @param key The key
+         */
+        void fillMap(final Map map, final String key) {
+            this.slots.add(new Slot() {
+                @Override
+                void fill(GModel model) {
+                    map.put(key, model);
+                }
+            });
+        }
+
+        /**
+         * Add to a collection without positions, such as a {@link Set}, once loaded
+         *
+         * @param collection The collection
+         */
+        void fillCollection(final java.util.Collection collection) {
+            this.slots.add(new Slot() {
+                @Override
+                void fill(GModel model) {
+                    if (model != null) collection.add(model);
+                }
+            });
+        }
+
+        private void fill() {
+            this.loaded = true;
+            for (Slot slot : this.slots) {
+                slot.fill(this.model);
+            }
+            this.slots.clear();
+        }
+    }
+
+    private static abstract class Slot {
+        abstract void fill(GModel model);
+    }
+}
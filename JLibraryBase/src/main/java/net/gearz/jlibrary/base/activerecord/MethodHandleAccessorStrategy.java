@@ -0,0 +1,87 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Binds fields and constructors to {@link java.lang.invoke.MethodHandle}s once, instead of going through
+ * {@link java.lang.reflect.Field#get(Object)} and {@link java.lang.reflect.Constructor#newInstance(Object...)}. The
+ * handles are not constants, so the JIT does not always inline them; compare it with the default
+ * {@link ReflectionAccessorStrategy} using AccessorStrategyBenchmark on your JVM before switching.
+ * Falls back to {@link ReflectionAccessorStrategy} for fields that cannot be bound, such as final fields.
+ */
+public class MethodHandleAccessorStrategy implements AccessorStrategy {
+    private static final MethodType getterType = MethodType.methodType(Object.class, GModel.class);
+    private static final MethodType setterType = MethodType.methodType(void.class, GModel.class, Object.class);
+    private static final MethodType constructorType = MethodType.methodType(GModel.class, DB.class, DBObject.class);
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final ReflectionAccessorStrategy fallback = new ReflectionAccessorStrategy();
+
+    @Override
+    public FieldAccessor accessorFor(final Field field) {
+        final MethodHandle getter;
+        final MethodHandle setter;
+        try {
+            getter = lookup.unreflectGetter(field).asType(getterType);
+            setter = lookup.unreflectSetter(field).asType(setterType);
+        } catch (IllegalAccessException e) {
+            return fallback.accessorFor(field);
+        }
+        return new FieldAccessor() {
+            @Override
+            public Object get(GModel model) {
+                try {
+                    return (Object) getter.invokeExact(model);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            }
+
+            @Override
+            public void set(GModel model, Object value) {
+                try {
+                    setter.invokeExact(model, value);
+                } catch (Throwable t) {
+                    throw propagate(t);
+                }
+            }
+        };
+    }
+
+    @Override
+    public ModelInstantiator instantiatorFor(Class<? extends GModel> clazz) throws NoSuchMethodException {
+        final MethodHandle constructor;
+        try {
+            constructor = lookup.unreflectConstructor(clazz.getConstructor(DB.class, DBObject.class)).asType(constructorType);
+        } catch (IllegalAccessException e) {
+            return fallback.instantiatorFor(clazz);
+        }
+        return new ModelInstantiator() {
+            @Override
+            public GModel newInstance(DB database, DBObject object) throws Exception {
+                try {
+                    return (GModel) constructor.invokeExact(database, object);
+                } catch (Exception | Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+            }
+        };
+    }
+
+    /**
+     * Rethrows unchecked throwables, and wraps anything else.
+     */
+    private static RuntimeException propagate(Throwable t) {
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new IllegalStateException(t);
+    }
+}
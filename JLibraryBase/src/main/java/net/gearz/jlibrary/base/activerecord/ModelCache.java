@@ -0,0 +1,113 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import lombok.Data;
+import org.bson.types.ObjectId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds recently loaded or saved models of one {@link Cached} class by id. Saving a model in this process replaces
+ * its entry, and removing it drops the entry.
+ */
+public final class ModelCache {
+    private final int maxSize;
+    private final long expireAfterMillis;
+    private final LinkedHashMap<ObjectId, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ModelCache(int maxSize, long expireAfterMillis) {
+        this.maxSize = Math.max(1, maxSize);
+        this.expireAfterMillis = expireAfterMillis;
+        this.entries = new LinkedHashMap<ObjectId, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectId, Entry> eldest) {
+                if (size() <= ModelCache.this.maxSize) return false;
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets a model
+     *
+     * @param id The id
+     * @return The model, or null if it is not cached.
+     */
+    synchronized GModel get(ObjectId id) {
+        Entry entry = this.entries.get(id);
+        if (entry != null && this.expireAfterMillis >= 0 && System.currentTimeMillis() - entry.getTime() > this.expireAfterMillis) {
+            this.entries.remove(id);
+            this.evictions.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        return entry.getModel();
+    }
+
+    /**
+     * Stores a model
+     *
+     * @param model The model, which must have an id.
+     */
+    synchronized void put(GModel model) {
+        if (model.getObjectId() == null) return;
+        this.entries.put(model.getObjectId(), new Entry(model, System.currentTimeMillis()));
+    }
+
+    /**
+     * Drops a model
+     *
+     * @param id The id of the model
+     */
+    public synchronized void invalidate(ObjectId id) {
+        this.entries.remove(id);
+    }
+
+    /**
+     * Drops a model, but only if it is the one cached for its id.
+     *
+     * @param model The model
+     */
+    synchronized void evict(GModel model) {
+        Entry entry = this.entries.get(model.getObjectId());
+        if (entry != null && entry.getModel() == model) this.entries.remove(model.getObjectId());
+    }
+
+    /**
+     * Drops every model
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    @Data
+    private static final class Entry {
+        private final GModel model;
+        private final long time;
+    }
+}
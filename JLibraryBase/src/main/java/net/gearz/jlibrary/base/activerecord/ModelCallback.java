@@ -0,0 +1,22 @@
+package net.gearz.jlibrary.base.activerecord;
+
+/**
+ * Receives the result of an asynchronous model operation, on the thread chosen by the {@link ModelExecutor}.
+ *
+ * @param <T> The result type
+ */
+public interface ModelCallback<T> {
+    /**
+     * Called when the operation succeeded
+     *
+     * @param result The result
+     */
+    public void onComplete(T result);
+
+    /**
+     * Called when the operation failed
+     *
+     * @param exception What went wrong
+     */
+    public void onError(Exception exception);
+}
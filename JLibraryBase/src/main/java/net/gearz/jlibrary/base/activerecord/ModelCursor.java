@@ -0,0 +1,100 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DB;
+import com.mongodb.DBCursor;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reads models from a query one batch at a time, so collections of any size can be processed without holding every
+ * model in memory. Linked objects are loaded together for each batch. The underlying cursor is closed once the last
+ * model has been read, or when {@link #close()} is called; always close a cursor that you stop reading early.
+ *
+ * @param <T> The model class
+ */
+public final class ModelCursor<T extends GModel> implements Iterator<T>, Iterable<T>, Closeable {
+    /**
+     * The default amount of documents read per batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final Class<T> modelClass;
+    private final DBCursor cursor;
+    private final DB database;
+    private final int batchSize;
+    /**
+     * The keys that were selected, or null for all of them
+     */
+    private final Set<String> loadedKeys;
+    /**
+     * Models that have been read but not returned yet
+     */
+    private final ArrayDeque<T> buffer;
+    private boolean closed = false;
+
+    ModelCursor(Class<T> modelClass, DBCursor cursor, DB database, int batchSize) {
+        this(modelClass, cursor, database, batchSize, null);
+    }
+
+    ModelCursor(Class<T> modelClass, DBCursor cursor, DB database, int batchSize, Set<String> loadedKeys) {
+        this.modelClass = modelClass;
+        this.loadedKeys = loadedKeys;
+        this.batchSize = Math.max(1, batchSize);
+        this.cursor = cursor.batchSize(this.batchSize);
+        this.database = database;
+        this.buffer = new ArrayDeque<>(this.batchSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!this.buffer.isEmpty()) return true;
+        if (this.closed) return false;
+        readBatch();
+        return !this.buffer.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return this.buffer.poll();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) return;
+        this.closed = true;
+        this.buffer.clear();
+        this.cursor.close();
+    }
+
+    /**
+     * Reads the next batch of documents into the buffer, closing the cursor if there are none left.
+     */
+    private void readBatch() {
+        LinkBatch batch = LinkBatch.open();
+        try {
+            while (this.buffer.size() < this.batchSize && this.cursor.hasNext()) {
+                GModel model = GModel.modelFromOne(this.modelClass, this.cursor.next(), this.database, this.loadedKeys);
+                if (model == null) continue;
+                this.buffer.add(this.modelClass.cast(model));
+            }
+        } finally {
+            batch.close();
+        }
+        if (this.buffer.isEmpty()) close();
+    }
+}
@@ -0,0 +1,263 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import lombok.Data;
+import lombok.Getter;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Everything about a {@link GModel} class that we would otherwise have to reflect on for every save or load.
+ * Built once per class, then shared by every instance of that class.
+ */
+final class ModelDescriptor {
+    private static final Logger logger = Logger.getLogger(ModelDescriptor.class.getName());
+    /**
+     * Keys that are reserved for the library in each document.
+     */
+    private static final Set<String> reservedKeys = new HashSet<>(Arrays.asList("_id", "_link_flag", "_class", "_schema_v"));
+    /**
+     * The descriptors we have already built.
+     */
+    private static final ConcurrentMap<Class<? extends GModel>, ModelDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    /**
+     * The class this describes
+     */
+    @Getter
+    private final Class<? extends GModel> modelClass;
+    /**
+     * The name of the collection, from {@link Collection} or the class name.
+     */
+    @Getter
+    private final String collectionName;
+    /**
+     * The value stored in the _class key
+     */
+    @Getter
+    private final String typeName;
+    /**
+     * All {@link BasicField}s, in declaration order.
+     */
+    @Getter
+    private final List<BasicAnalyzedField> fields;
+    /**
+     * The same fields, by database key.
+     */
+    private final Map<String, BasicAnalyzedField> fieldsByKey;
+    /**
+     * Creates models from documents. Null when the class has no {@code (DB, DBObject)} constructor.
+     */
+    @Getter
+    private final ModelInstantiator instantiator;
+    /**
+     * Annotated with {@link WriteBehind}
+     */
+    @Getter
+    private final boolean writeBehind;
+    /**
+     * The cache of this class if it is {@link Cached}, otherwise null.
+     */
+    @Getter
+    private final ModelCache cache;
+    /**
+     * The current {@link SchemaVersion}
+     */
+    @Getter
+    private final int schemaVersion;
+    /**
+     * Write upgraded documents back when loaded
+     */
+    @Getter
+    private final boolean writeBack;
+    /**
+     * The migrations, by the version they upgrade from.
+     */
+    private final ConcurrentMap<Integer, SchemaMigration> migrations = new ConcurrentHashMap<>();
+    /**
+     * The indexes from {@link Indexed} and {@link CompoundIndex}
+     */
+    private final List<IndexDefinition> indexes;
+    /**
+     * The databases where we have already created the indexes
+     */
+    private final Set<String> indexedDatabases = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private ModelDescriptor(Class<? extends GModel> modelClass, AccessorStrategy strategy) {
+        this.modelClass = modelClass;
+        this.typeName = ModelRegistry.typeName(modelClass);
+        ModelRegistry.register(modelClass);
+        this.writeBehind = modelClass.isAnnotationPresent(WriteBehind.class);
+        Cached cached = modelClass.getAnnotation(Cached.class);
+        this.cache = cached == null ? null : new ModelCache(cached.maxSize(), cached.expireAfterMillis());
+        SchemaVersion schemaVersion = modelClass.getAnnotation(SchemaVersion.class);
+        this.schemaVersion = schemaVersion == null ? 1 : schemaVersion.value();
+        this.writeBack = schemaVersion != null && schemaVersion.writeBack();
+        if (modelClass.isAnnotationPresent(Collection.class)) {
+            this.collectionName = modelClass.getAnnotation(Collection.class).name();
+        } else {
+            this.collectionName = modelClass.getSimpleName().toLowerCase() + "s";
+        }
+        List<BasicAnalyzedField> fields = new ArrayList<>();
+        Map<String, BasicAnalyzedField> fieldsByKey = new HashMap<>();
+        List<IndexDefinition> indexes = new ArrayList<>();
+        for (Field f : modelClass.getDeclaredFields()) {
+            BasicField annotation = f.getAnnotation(BasicField.class);
+            if (annotation == null) continue;
+            String key = annotation.key().equals("") ? f.getName().toLowerCase() : annotation.key();
+            if (reservedKeys.contains(key)) continue;
+            BasicAnalyzedField analyzedField = new BasicAnalyzedField(key, f, strategy);
+            fields.add(analyzedField);
+            fieldsByKey.put(key, analyzedField);
+            //So their aliases can be read before those classes are used on their own
+            registerModelType(f.getType());
+            registerModelType(analyzedField.getElementType());
+            Indexed indexed = f.getAnnotation(Indexed.class);
+            if (indexed != null) {
+                BasicDBObject options = indexOptions(indexed.unique(), indexed.sparse());
+                if (indexed.expireAfterSeconds() >= 0) options.put("expireAfterSeconds", indexed.expireAfterSeconds());
+                indexes.add(new IndexDefinition(new BasicDBObject(key, indexed.ascending() ? 1 : -1), options));
+            }
+        }
+        List<CompoundIndex> compoundIndexes = new ArrayList<>();
+        if (modelClass.isAnnotationPresent(CompoundIndex.class))
+            compoundIndexes.add(modelClass.getAnnotation(CompoundIndex.class));
+        if (modelClass.isAnnotationPresent(CompoundIndexes.class))
+            compoundIndexes.addAll(Arrays.asList(modelClass.getAnnotation(CompoundIndexes.class).value()));
+        for (CompoundIndex compoundIndex : compoundIndexes) {
+            BasicDBObject keys = new BasicDBObject();
+            for (String key : compoundIndex.keys()) {
+                if (key.startsWith("-")) keys.put(key.substring(1), -1);
+                else keys.put(key, 1);
+            }
+            indexes.add(new IndexDefinition(keys, indexOptions(compoundIndex.unique(), compoundIndex.sparse())));
+        }
+        this.indexes = indexes;
+        this.fields = Collections.unmodifiableList(fields);
+        this.fieldsByKey = fieldsByKey;
+        ModelInstantiator instantiator;
+        try {
+            instantiator = strategy.instantiatorFor(modelClass);
+        } catch (NoSuchMethodException e) {
+            instantiator = null;
+        }
+        this.instantiator = instantiator;
+    }
+
+    private static void registerModelType(Class<?> type) {
+        if (GModel.class.isAssignableFrom(type)) ModelRegistry.register(type.asSubclass(GModel.class));
+    }
+
+    private static BasicDBObject indexOptions(boolean unique, boolean sparse) {
+        BasicDBObject options = new BasicDBObject();
+        if (unique) options.put("unique", true);
+        if (sparse) options.put("sparse", true);
+        return options;
+    }
+
+    /**
+     * Creates the indexes of this class in a collection, if it has not been done for its database yet. If creating an
+     * index fails, it is tried again the next time.
+     *
+     * @param collection The collection of this class
+     */
+    void ensureIndexes(DBCollection collection) {
+        if (this.indexes.isEmpty()) return;
+        String database = collection.getDB().getName();
+        if (this.indexedDatabases.contains(database)) return;
+        boolean created = true;
+        for (IndexDefinition index : this.indexes) {
+            try {
+                collection.ensureIndex(index.getKeys(), index.getOptions());
+            } catch (MongoException e) {
+                created = false;
+                logger.log(Level.WARNING, "Cannot create the index " + index.getKeys() + " on " + collection.getFullName() + ", trying again next time", e);
+            }
+        }
+        if (created) this.indexedDatabases.add(database);
+    }
+
+    /**
+     * Registers a migration
+     *
+     * @param fromVersion The version it upgrades from
+     * @param migration   The migration
+     */
+    void registerMigration(int fromVersion, SchemaMigration migration) {
+        this.migrations.put(fromVersion, migration);
+    }
+
+    /**
+     * Upgrades a document to the current {@link SchemaVersion}
+     *
+     * @param document The stored document, which is not changed
+     * @return An upgraded copy, or null if the document is up to date.
+     */
+    DBObject migrate(DBObject document) {
+        int version = storedVersion(document.get("_schema_v"));
+        if (version >= this.schemaVersion) return null;
+        DBObject upgraded = document instanceof BasicDBObject ? (DBObject) ((BasicDBObject) document).copy() : new BasicDBObject(document.toMap());
+        for (int v = version; v < this.schemaVersion; v++) {
+            SchemaMigration migration = this.migrations.get(v);
+            if (migration != null) migration.migrate(upgraded);
+        }
+        upgraded.put("_schema_v", this.schemaVersion);
+        return upgraded;
+    }
+
+    /**
+     * Reads the _schema_v key. Older documents store "1.0", and some have none at all.
+     */
+    private static int storedVersion(Object version) {
+        if (version instanceof Number) return ((Number) version).intValue();
+        if (version instanceof String) {
+            try {
+                return (int) Double.parseDouble((String) version);
+            } catch (NumberFormatException e) {
+                return 1;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Gets a field by its database key
+     *
+     * @param key The key
+     * @return The field, or null if there is no {@link BasicField} with that key.
+     */
+    BasicAnalyzedField getField(String key) {
+        return this.fieldsByKey.get(key);
+    }
+
+    /**
+     * Gets the descriptor for a class, analyzing the class the first time it is seen.
+     *
+     * @param clazz The model class
+     * @return The shared descriptor.
+     */
+    static ModelDescriptor forClass(Class<? extends GModel> clazz) {
+        ModelDescriptor descriptor = descriptors.get(clazz);
+        if (descriptor != null) return descriptor;
+        descriptor = new ModelDescriptor(clazz, GModel.getAccessorStrategy());
+        ModelDescriptor existing = descriptors.putIfAbsent(clazz, descriptor);
+        return existing == null ? descriptor : existing;
+    }
+
+    /**
+     * An index to create
+     */
+    @Data
+    private static final class IndexDefinition {
+        private final DBObject keys;
+        private final DBObject options;
+    }
+}
@@ -0,0 +1,154 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs model operations away from the server thread. Operations are spread over a fixed amount of lanes, each with
+ * one thread and a bounded queue. All operations on the same model use the same lane, picked by its id (or by the
+ * instance if it had none) when its first operation is submitted, so they are applied in the order they were
+ * submitted. When a lane's queue is full the submitting thread waits for space.
+ */
+public final class ModelExecutor {
+    private final ThreadPoolExecutor[] lanes;
+    /**
+     * Where callbacks are run. Null to run them on the I/O thread.
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * Creates an executor
+     *
+     * @param threads          The amount of lanes
+     * @param queueCapacity    The most operations waiting in each lane
+     * @param callbackExecutor Where callbacks are run, such as {@link net.gearz.jlibrary.base.TPlugin#getMainThreadExecutor()}.
+     *                         Null to run them on the I/O thread.
+     */
+    public ModelExecutor(int threads, int queueCapacity, Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        this.lanes = new ThreadPoolExecutor[Math.max(1, threads)];
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GModel-IO-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        RejectedExecutionHandler waitForSpace = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) throw new RejectedExecutionException("The model executor has been shut down");
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            }
+        };
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), threadFactory, waitForSpace);
+        }
+    }
+
+    public ModelExecutor(int threads, int queueCapacity) {
+        this(threads, queueCapacity, null);
+    }
+
+    /**
+     * Submits an operation on a model
+     *
+     * @param model     The model, which decides the lane
+     * @param operation The operation
+     * @param callback  Receives the result, may be null
+     * @param <T>       The result type
+     * @return A future for the result.
+     */
+    <T> Future<T> submit(GModel model, Callable<T> operation, final ModelCallback<T> callback) {
+        FutureTask<T> task = new FutureTask<T>(operation) {
+            @Override
+            protected void done() {
+                if (callback == null || isCancelled()) return;
+                Runnable deliver = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            callback.onComplete(get());
+                        } catch (ExecutionException e) {
+                            Throwable cause = e.getCause();
+                            callback.onError(cause instanceof Exception ? (Exception) cause : e);
+                        } catch (InterruptedException e) {
+                            callback.onError(e);
+                        }
+                    }
+                };
+                if (callbackExecutor == null) deliver.run();
+                else callbackExecutor.execute(deliver);
+            }
+        };
+        laneFor(model).execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for everything submitted so far to finish.
+     *
+     * @param timeout The most time to wait
+     * @param unit    The unit of the timeout
+     * @return If everything finished in time.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Future<?>> barriers = new ArrayList<>();
+        for (ThreadPoolExecutor lane : this.lanes) {
+            if (lane.isShutdown()) continue;
+            barriers.add(lane.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }));
+        }
+        for (Future<?> barrier : barriers) {
+            try {
+                barrier.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting operations and waits for the queued ones to finish.
+     *
+     * @param timeout The most time to wait
+     * @param unit    The unit of the timeout
+     * @return If everything finished in time.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadPoolExecutor lane : this.lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : this.lanes) {
+            if (!lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) return false;
+        }
+        return true;
+    }
+
+    private ThreadPoolExecutor laneFor(GModel model) {
+        int hash = model.getLaneKey();
+        hash ^= hash >>> 16;
+        return this.lanes[(hash & Integer.MAX_VALUE) % this.lanes.length];
+    }
+}
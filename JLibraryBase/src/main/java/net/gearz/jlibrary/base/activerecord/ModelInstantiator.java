@@ -0,0 +1,19 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+
+/**
+ * Creates a model from a document using its {@code (DB, DBObject)} constructor.
+ */
+public interface ModelInstantiator {
+    /**
+     * Creates a model
+     *
+     * @param database The database for the model
+     * @param object   The document to load
+     * @return The new model.
+     * @throws Exception When the constructor fails.
+     */
+    public GModel newInstance(DB database, DBObject object) throws Exception;
+}
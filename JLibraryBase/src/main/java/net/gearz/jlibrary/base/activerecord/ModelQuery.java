@@ -0,0 +1,358 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+/**
+ * Builds a query for a model class. Unlike {@link GModel#findMany()} this only matches on the keys you supply, and can
+ * restrict the fields that are loaded, sort, and page through results.
+ * <p>
+ * Keys are the database keys of {@link BasicField}s (the lower case field name unless a key is given), or "_id".
+ * <pre>
+ * List&lt;PlayerStats&gt; top = GModel.query(PlayerStats.class).greaterThan("kills", 0).sort("kills", false).limit(20).findMany();
+ * </pre>
+ *
+ * @param <T> The model class
+ */
+public final class ModelQuery<T extends GModel> {
+    private final Class<T> modelClass;
+    private final DB database;
+    private final ModelDescriptor descriptor;
+    private final BasicDBObject query = new BasicDBObject();
+    private final LinkedHashMap<String, Integer> sort = new LinkedHashMap<>();
+    private Set<String> fields = null;
+    private int skip = 0;
+    private int limit = 0;
+    private int batchSize = ModelCursor.DEFAULT_BATCH_SIZE;
+
+    ModelQuery(Class<T> modelClass, DB database) {
+        this.modelClass = modelClass;
+        this.database = database;
+        this.descriptor = ModelDescriptor.forClass(modelClass);
+    }
+
+    /**
+     * Matches documents where the key equals the value
+     *
+     * @param key   The key
+     * @param value The value
+     * @return This query
+     */
+    public ModelQuery<T> where(String key, Object value) {
+        this.query.put(checkKey(key), encode(key, value));
+        return this;
+    }
+
+    /**
+     * Matches documents where the key equals any of the values
+     *
+     * @param key    The key
+     * @param values The values
+     * @return This query
+     */
+    public ModelQuery<T> in(String key, java.util.Collection<?> values) {
+        BasicDBList list = new BasicDBList();
+        for (Object value : values) {
+            list.add(encode(key, value));
+        }
+        return operator(key, "$in", list);
+    }
+
+    public ModelQuery<T> in(String key, Object... values) {
+        return in(key, Arrays.asList(values));
+    }
+
+    public ModelQuery<T> notEqual(String key, Object value) {
+        return operator(key, "$ne", encode(key, value));
+    }
+
+    public ModelQuery<T> greaterThan(String key, Object value) {
+        return operator(key, "$gt", encode(key, value));
+    }
+
+    public ModelQuery<T> greaterThanOrEqual(String key, Object value) {
+        return operator(key, "$gte", encode(key, value));
+    }
+
+    public ModelQuery<T> lessThan(String key, Object value) {
+        return operator(key, "$lt", encode(key, value));
+    }
+
+    public ModelQuery<T> lessThanOrEqual(String key, Object value) {
+        return operator(key, "$lte", encode(key, value));
+    }
+
+    /**
+     * Only loads these keys. Every other field is left empty, and is not touched when the model is saved.
+     *
+     * @param keys The keys to load
+     * @return This query
+     */
+    public ModelQuery<T> select(String... keys) {
+        if (this.fields == null) this.fields = new HashSet<>();
+        for (String key : keys) {
+            this.fields.add(checkKey(key));
+        }
+        return this;
+    }
+
+    /**
+     * Sorts the results. Can be called more than once to sort on more keys.
+     *
+     * @param key       The key
+     * @param ascending Ascending or descending
+     * @return This query
+     */
+    public ModelQuery<T> sort(String key, boolean ascending) {
+        this.sort.put(checkKey(key), ascending ? 1 : -1);
+        return this;
+    }
+
+    public ModelQuery<T> skip(int skip) {
+        this.skip = skip;
+        return this;
+    }
+
+    public ModelQuery<T> limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Sets the amount of documents read at once by {@link #iterate()}
+     *
+     * @param batchSize The batch size
+     * @return This query
+     */
+    public ModelQuery<T> batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Continues from a model returned by the previous page. Unlike {@link #skip(int)} this does not get slower on later
+     * pages. Uses every sort key in order, with "_id" to break ties, so call this after the sort is set.
+     *
+     * @param last The last model of the previous page
+     * @return This query
+     */
+    public ModelQuery<T> after(T last) {
+        ObjectId lastId = last.getObjectId();
+        if (lastId == null) throw new IllegalArgumentException("The model has not been saved");
+        if (!this.sort.containsKey("_id")) {
+            this.sort.put("_id", this.sort.isEmpty() ? 1 : this.sort.values().iterator().next());
+        }
+        if (this.sort.keySet().iterator().next().equals("_id")) {
+            return operator("_id", this.sort.get("_id") > 0 ? "$gt" : "$lt", lastId);
+        }
+        //Sorted after the last model if the keys before one are equal and that one is past it
+        BasicDBList or = new BasicDBList();
+        BasicDBObject equal = new BasicDBObject();
+        for (Map.Entry<String, Integer> entry : this.sort.entrySet()) {
+            String key = entry.getKey();
+            boolean ascending = entry.getValue() > 0;
+            Object value = key.equals("_id") ? lastId : storedValueAt(last, key);
+            Object past;
+            if (value != null) {
+                past = new BasicDBObject(ascending ? "$gt" : "$lt", value);
+            } else if (ascending) {
+                past = new BasicDBObject("$ne", null); //Null and missing values sort before all others
+            } else {
+                past = null;
+            }
+            if (past != null) or.add(new BasicDBObject(equal).append(key, past));
+            if (key.equals("_id")) break; //Unique, so later keys do not change the order
+            equal.put(key, value);
+        }
+        if (!this.query.containsField("$or")) {
+            this.query.put("$or", or);
+            return this;
+        }
+        //Keep the $or that is already there, both have to match
+        Object and = this.query.get("$and");
+        if (!(and instanceof BasicDBList)) {
+            and = new BasicDBList();
+            this.query.put("$and", and);
+        }
+        ((BasicDBList) and).add(new BasicDBObject("$or", or));
+        return this;
+    }
+
+    /**
+     * Gets the first result
+     *
+     * @return The model, or null if nothing matched.
+     */
+    public T findOne() {
+        int limit = this.limit;
+        this.limit = 1;
+        try (ModelCursor<T> cursor = iterate()) {
+            return cursor.hasNext() ? cursor.next() : null;
+        } finally {
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * Gets all results
+     *
+     * @return The models
+     */
+    public List<T> findMany() {
+        List<T> models = new ArrayList<>();
+        LinkBatch batch = LinkBatch.open();
+        try (ModelCursor<T> cursor = iterate()) {
+            for (T model : cursor) {
+                models.add(model);
+            }
+        } finally {
+            batch.close();
+        }
+        return models;
+    }
+
+    /**
+     * Reads the results in batches as the cursor is used
+     *
+     * @return A cursor over the results, which must be closed if it is not read to the end.
+     */
+    public ModelCursor<T> iterate() {
+        DBCursor cursor = getCollection().find(this.query, getProjection());
+        if (!this.sort.isEmpty()) cursor.sort(new BasicDBObject(this.sort));
+        if (this.skip > 0) cursor.skip(this.skip);
+        if (this.limit > 0) cursor.limit(this.limit);
+        return new ModelCursor<>(this.modelClass, cursor, this.database, this.batchSize, this.fields);
+    }
+
+    /**
+     * Counts the results, ignoring skip and limit.
+     *
+     * @return The amount of matching documents.
+     */
+    public long count() {
+        return getCollection().count(this.query);
+    }
+
+    private DBCollection getCollection() {
+        DBCollection collection = this.database.getCollection(this.descriptor.getCollectionName());
+        this.descriptor.ensureIndexes(collection);
+        return collection;
+    }
+
+    private BasicDBObject getProjection() {
+        if (this.fields == null) return null;
+        BasicDBObject projection = new BasicDBObject();
+        for (String field : this.fields) {
+            projection.put(field, 1);
+        }
+        projection.put("_schema_v", 1); //So current documents are not migrated again
+        return projection;
+    }
+
+    /**
+     * Reads the value a key points to from a model, in the form it is stored in. Dotted keys go into maps, lists and
+     * embedded models.
+     *
+     * @param model The model
+     * @param key   The key
+     * @return The stored value, or null if there is none.
+     */
+    private Object storedValueAt(T model, String key) {
+        String[] path = key.split("\\.");
+        BasicAnalyzedField field = this.descriptor.getField(path[0]);
+        Object value = field.get(model);
+        FieldCodec<Object> codec = field.getCodec();
+        for (int i = 1; i < path.length && value != null; i++) {
+            if (value instanceof GModel) {
+                field = ModelDescriptor.forClass(((GModel) value).getClass()).getField(path[i]);
+                if (field == null) return null;
+                value = field.get((GModel) value);
+                codec = field.getCodec();
+            } else if (value instanceof Map) {
+                value = ((Map) value).get(path[i]);
+                codec = field.getElementCodec();
+            } else if (value instanceof List) {
+                int index;
+                try {
+                    index = Integer.parseInt(path[i]);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                List list = (List) value;
+                value = index >= 0 && index < list.size() ? list.get(index) : null;
+                codec = field.getElementCodec();
+            } else {
+                return null;
+            }
+        }
+        return value == null || codec == null ? value : codec.encode(value);
+    }
+
+    /**
+     * Converts a value to the form it is stored in, with the codec of the field the key points to. Values that are not
+     * of the type of that field, such as values that are already in their stored form, are used as they are.
+     *
+     * @param key   The key
+     * @param value The value
+     * @return The value to put in the query.
+     */
+    private Object encode(String key, Object value) {
+        if (value == null || key.equals("_id")) return value;
+        String[] path = key.split("\\.");
+        BasicAnalyzedField field = this.descriptor.getField(path[0]);
+        if (field == null) return value;
+        FieldCodec<Object> codec;
+        Class<?> type;
+        if (path.length == 1 && !field.isCollection()) {
+            codec = field.getCodec();
+            type = field.getField().getType();
+        } else if ((field.isCollection() && path.length <= 2) || (field.isMap() && path.length == 2)) {
+            codec = field.getElementCodec();
+            type = field.getElementType();
+        } else {
+            return value;
+        }
+        if (codec == null || !wrapperOf(type).isInstance(value)) return value;
+        return codec.encode(value);
+    }
+
+    private static Class<?> wrapperOf(Class<?> type) {
+        if (!type.isPrimitive()) return type;
+        if (type == int.class) return Integer.class;
+        if (type == long.class) return Long.class;
+        if (type == double.class) return Double.class;
+        if (type == float.class) return Float.class;
+        if (type == short.class) return Short.class;
+        if (type == byte.class) return Byte.class;
+        if (type == char.class) return Character.class;
+        return Boolean.class;
+    }
+
+    private ModelQuery<T> operator(String key, String operator, Object value) {
+        checkKey(key);
+        Object existing = this.query.get(key);
+        BasicDBObject operators;
+        if (existing instanceof BasicDBObject) {
+            operators = (BasicDBObject) existing;
+        } else {
+            operators = new BasicDBObject();
+            this.query.put(key, operators);
+        }
+        operators.put(operator, value);
+        return this;
+    }
+
+    private String checkKey(String key) {
+        if (key.equals("_id")) return key;
+        String fieldKey = key.split("\\.")[0];
+        if (this.descriptor.getField(fieldKey) == null)
+            throw new IllegalArgumentException(this.modelClass.getSimpleName() + " has no @BasicField with the key " + fieldKey);
+        return key;
+    }
+}
@@ -0,0 +1,94 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Maps the values of _class keys to model classes. Every model class is registered the first time it is used, along
+ * with the model types of its fields, and can be registered ahead of time with {@link #register(Class)}. Subclasses
+ * of those types that are stored under a {@link TypeAlias} have to be registered ahead of time.
+ * <p>
+ * When strict, only registered classes can be read from documents. Otherwise unknown names are looked up once
+ * (without initializing the class) and accepted if they are a {@link GModel}. Names that are not are remembered, and
+ * not looked up again.
+ */
+public final class ModelRegistry {
+    private static final Logger logger = Logger.getLogger(ModelRegistry.class.getName());
+    /**
+     * Classes by full name and by {@link TypeAlias}
+     */
+    private static final ConcurrentMap<String, Class<? extends GModel>> types = new ConcurrentHashMap<>();
+    /**
+     * Names that were looked up and are not a {@link GModel}, so they are not looked up again
+     */
+    private static final Set<String> unknownNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Only read registered classes
+     */
+    @Getter
+    @Setter
+    private static volatile boolean strict = false;
+
+    private ModelRegistry() {
+    }
+
+    /**
+     * Registers a model class, and its {@link TypeAlias} if it has one.
+     *
+     * @param clazz The model class
+     * @throws IllegalArgumentException When the alias is already used by another class.
+     */
+    public static void register(Class<? extends GModel> clazz) {
+        types.putIfAbsent(clazz.getName(), clazz);
+        unknownNames.remove(clazz.getName());
+        TypeAlias alias = clazz.getAnnotation(TypeAlias.class);
+        if (alias == null) return;
+        unknownNames.remove(alias.value());
+        Class<? extends GModel> existing = types.putIfAbsent(alias.value(), clazz);
+        if (existing != null && !existing.equals(clazz))
+            throw new IllegalArgumentException("The alias " + alias.value() + " is used by both " + existing.getName() + " and " + clazz.getName());
+    }
+
+    /**
+     * Gets the name stored in the _class key for a model class
+     *
+     * @param clazz The model class
+     * @return Its alias, or its name.
+     */
+    static String typeName(Class<? extends GModel> clazz) {
+        TypeAlias alias = clazz.getAnnotation(TypeAlias.class);
+        return alias == null ? clazz.getName() : alias.value();
+    }
+
+    /**
+     * Gets the model class for the value of a _class key
+     *
+     * @param name The class name or alias
+     * @return The class, or null if it is not an allowed model class.
+     */
+    static Class<? extends GModel> resolve(String name) {
+        Class<? extends GModel> clazz = types.get(name);
+        if (clazz != null || strict || unknownNames.contains(name)) return clazz;
+        Class<?> c;
+        try {
+            c = Class.forName(name, false, GModel.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            if (unknownNames.add(name)) logger.warning("No model class or alias " + name + " is known, documents stored with it are not loaded");
+            return null;
+        }
+        if (!GModel.class.isAssignableFrom(c)) {
+            if (unknownNames.add(name)) logger.warning(name + " is not a model class, documents stored with it are not loaded");
+            return null;
+        }
+        clazz = c.asSubclass(GModel.class);
+        register(clazz);
+        return clazz;
+    }
+}
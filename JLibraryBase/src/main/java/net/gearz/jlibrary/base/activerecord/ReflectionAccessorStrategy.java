@@ -0,0 +1,52 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The default strategy. Uses plain {@link java.lang.reflect.Field} and {@link java.lang.reflect.Constructor} calls.
+ */
+public class ReflectionAccessorStrategy implements AccessorStrategy {
+    @Override
+    public FieldAccessor accessorFor(final Field field) {
+        return new FieldAccessor() {
+            @Override
+            public Object get(GModel model) {
+                try {
+                    return field.get(model);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Cannot read " + field, e);
+                }
+            }
+
+            @Override
+            public void set(GModel model, Object value) {
+                try {
+                    field.set(model, value);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Cannot write " + field, e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public ModelInstantiator instantiatorFor(Class<? extends GModel> clazz) throws NoSuchMethodException {
+        final Constructor<? extends GModel> constructor = clazz.getConstructor(DB.class, DBObject.class);
+        return new ModelInstantiator() {
+            @Override
+            public GModel newInstance(DB database, DBObject object) throws Exception {
+                try {
+                    return constructor.newInstance(database, object);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        };
+    }
+}
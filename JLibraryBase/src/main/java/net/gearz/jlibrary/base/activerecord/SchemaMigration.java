@@ -0,0 +1,15 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DBObject;
+
+/**
+ * Upgrades a document by one {@link SchemaVersion}.
+ */
+public interface SchemaMigration {
+    /**
+     * Upgrades the document in place, for example by renaming or converting keys.
+     *
+     * @param document A copy of the stored document.
+     */
+    public void migrate(DBObject document);
+}
@@ -0,0 +1,75 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.*;
+import lombok.Getter;
+
+/**
+ * Upgrades every outdated document of a model class, one batch at a time. This can take a while on large collections,
+ * so run it on its own thread. Documents are updated with $set and $unset of what the migrations changed, and a
+ * document that was written by someone else in the meantime is left alone.
+ */
+public final class SchemaMigrator implements Runnable {
+    private final Class<? extends GModel> modelClass;
+    private final DB database;
+    private final int batchSize;
+    /**
+     * The amount of documents upgraded so far
+     */
+    @Getter
+    private volatile int migrated = 0;
+
+    public SchemaMigrator(Class<? extends GModel> modelClass, DB database, int batchSize) {
+        this.modelClass = modelClass;
+        this.database = database;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run() {
+        ModelDescriptor descriptor = ModelDescriptor.forClass(this.modelClass);
+        DBCollection collection = this.database.getCollection(descriptor.getCollectionName());
+        BasicDBList outdated = new BasicDBList();
+        outdated.add(new BasicDBObject("_schema_v", new BasicDBObject("$lt", descriptor.getSchemaVersion())));
+        outdated.add(new BasicDBObject("_schema_v", new BasicDBObject("$exists", false)));
+        outdated.add(new BasicDBObject("_schema_v", new BasicDBObject("$type", 2))); //Strings, from before versions were numbers
+        DBCursor cursor = collection.find(new BasicDBObject("$or", outdated)).batchSize(this.batchSize);
+        try {
+            for (DBObject document : cursor) {
+                DBObject upgraded = descriptor.migrate(document);
+                if (upgraded == null) continue;
+                DBObject query = new BasicDBObject("_id", document.get("_id")).append("_schema_v", document.get("_schema_v"));
+                WriteResult update = collection.update(query, changesBetween(document, upgraded));
+                if (update.getN() > 0) this.migrated++;
+                ModelCache cache = descriptor.getCache();
+                if (cache != null) cache.invalidate((org.bson.types.ObjectId) document.get("_id"));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Builds an update that turns one document into another.
+     *
+     * @param before The stored document
+     * @param after  The wanted document
+     * @return An update with $set and $unset.
+     */
+    static DBObject changesBetween(DBObject before, DBObject after) {
+        BasicDBObject set = new BasicDBObject();
+        BasicDBObject unset = new BasicDBObject();
+        for (String key : after.keySet()) {
+            if (key.equals("_id")) continue;
+            Object value = after.get(key);
+            if (value == null ? before.get(key) != null || !before.containsField(key) : !value.equals(before.get(key)))
+                set.put(key, value);
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsField(key)) unset.put(key, 1);
+        }
+        BasicDBObject changes = new BasicDBObject();
+        if (!set.isEmpty()) changes.put("$set", set);
+        if (!unset.isEmpty()) changes.put("$unset", unset);
+        return changes;
+    }
+}
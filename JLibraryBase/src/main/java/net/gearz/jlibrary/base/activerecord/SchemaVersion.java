@@ -0,0 +1,29 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The version of a model's document layout, stored in the _schema_v key. Older documents are upgraded by the
+ * {@link SchemaMigration}s registered with {@link GModel#registerMigration(Class, int, SchemaMigration)} when they are
+ * loaded. Classes without this annotation are version 1.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface SchemaVersion {
+    /**
+     * The current version
+     *
+     * @return The version, starting at 1.
+     */
+    public int value();
+
+    /**
+     * Write upgraded documents back to the database as soon as they are loaded, instead of on the next save.
+     *
+     * @return If upgraded documents are written back.
+     */
+    public boolean writeBack() default false;
+}
@@ -0,0 +1,123 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.*;
+import lombok.Setter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out values for {@link AutoIncrement} fields. Each sequence is a document in the "counters" collection which is
+ * atomically increased with findAndModify. Values are reserved in blocks, so most inserts do not need a round-trip.
+ * Values are unique between servers, but they are not handed out in order between them.
+ */
+public final class Sequence {
+    /**
+     * The amount of values reserved by this process in one round-trip.
+     */
+    @Setter
+    private static int blockSize = 20;
+    /**
+     * All sequences in use, by database and name.
+     */
+    private static final ConcurrentMap<String, Sequence> sequences = new ConcurrentHashMap<>();
+
+    /**
+     * The collection holding the counters
+     */
+    private final DBCollection counters;
+    /**
+     * The collection holding the models
+     */
+    private final DBCollection collection;
+    /**
+     * The key of the auto-increment field
+     */
+    private final String key;
+    /**
+     * The _id of the counter document
+     */
+    private final String name;
+    /**
+     * If we've made sure the counter exists
+     */
+    private boolean seeded = false;
+    /**
+     * The next value to hand out
+     */
+    private long next = 0;
+    /**
+     * The first value that is not reserved by us
+     */
+    private long limit = 0;
+
+    private Sequence(DB database, DBCollection collection, String key) {
+        this.counters = database.getCollection("counters");
+        this.collection = collection;
+        this.key = key;
+        this.name = collection.getName() + "." + key;
+    }
+
+    /**
+     * Gets the sequence for a field
+     *
+     * @param database   The database of the model
+     * @param collection The collection of the model
+     * @param key        The key of the {@link AutoIncrement} field
+     * @return The shared sequence.
+     */
+    static Sequence forField(DB database, DBCollection collection, String key) {
+        String id = database.getName() + ":" + collection.getName() + "." + key;
+        Sequence sequence = sequences.get(id);
+        if (sequence != null) return sequence;
+        sequence = new Sequence(database, collection, key);
+        Sequence existing = sequences.putIfAbsent(id, sequence);
+        return existing == null ? sequence : existing;
+    }
+
+    /**
+     * Gets the next value
+     *
+     * @return A value that has not been handed out by any server.
+     */
+    synchronized long next() {
+        if (this.next >= this.limit) allocate();
+        return this.next++;
+    }
+
+    /**
+     * Reserves the next block of values.
+     */
+    private void allocate() {
+        if (!this.seeded) seed();
+        int block = Math.max(1, Sequence.blockSize);
+        DBObject counter = this.counters.findAndModify(
+                new BasicDBObject("_id", this.name), null, null, false,
+                new BasicDBObject("$inc", new BasicDBObject("seq", (long) block)), true, true);
+        long last = ((Number) counter.get("seq")).longValue();
+        this.next = last - block + 1;
+        this.limit = last + 1;
+    }
+
+    /**
+     * Creates the counter if it does not exist, starting after the highest value already stored in the collection.
+     */
+    private void seed() {
+        if (this.counters.findOne(new BasicDBObject("_id", this.name)) == null) {
+            long highest = 0;
+            DBCursor cursor = this.collection.find(new BasicDBObject(this.key, new BasicDBObject("$exists", true)), new BasicDBObject(this.key, 1))
+                    .sort(new BasicDBObject(this.key, -1)).limit(1);
+            if (cursor.hasNext()) {
+                Object o = cursor.next().get(this.key);
+                if (o instanceof Number) highest = ((Number) o).longValue();
+            }
+            cursor.close();
+            try {
+                this.counters.insert(new BasicDBObject("_id", this.name).append("seq", highest));
+            } catch (MongoException.DuplicateKey ignored) {
+                //Another server created it first
+            }
+        }
+        this.seeded = true;
+    }
+}
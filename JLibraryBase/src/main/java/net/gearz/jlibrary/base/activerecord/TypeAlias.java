@@ -0,0 +1,16 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stores a short name in the _class key instead of the full class name. Documents with either name can be read, as
+ * long as the class has been registered with {@link ModelRegistry}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface TypeAlias {
+    public String value();
+}
@@ -0,0 +1,16 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Makes {@link GModel#save()} only mark the model as dirty. A {@link WriteBehindBuffer} writes the latest state of
+ * each dirty model in the background, so saving the same model many times between flushes costs one write.
+ * Use this for models that are saved very often, such as counters and balances.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface WriteBehind {
+}
@@ -0,0 +1,215 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DBObject;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the latest document of each dirty {@link WriteBehind} model and writes them every interval. Models are keyed by
+ * their id, so saving two loaded copies of the same document only writes the latest one. When the buffer holds as many
+ * models as its capacity, saving another model waits until the buffer has been flushed.
+ */
+public final class WriteBehindBuffer {
+    private static final Logger logger = Logger.getLogger(WriteBehindBuffer.class.getName());
+    /**
+     * The most models waiting to be written
+     */
+    private final int capacity;
+    /**
+     * The latest document of each dirty model, by {@link #keyOf(GModel)}
+     */
+    private LinkedHashMap<Object, PendingWrite> dirty = new LinkedHashMap<>();
+    /**
+     * The keys removed while a flush is running, so it does not write them back.
+     */
+    private final Set<Object> removed = new HashSet<>();
+    /**
+     * A flush is writing the documents it took
+     */
+    private boolean flushing = false;
+    /**
+     * The key and model being written by the flush, or null.
+     */
+    private Object writing;
+    private GModel writingModel;
+    /**
+     * Makes sure flushes happen one at a time, so documents of the same model are written in order.
+     */
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Creates a buffer, and starts flushing it.
+     *
+     * @param intervalMillis The time between flushes
+     * @param capacity       The most models waiting to be written
+     */
+    public WriteBehindBuffer(long intervalMillis, int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GModel-WriteBehind");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks a model as dirty, replacing any document it, or another copy of the same document, already had waiting.
+     *
+     * @param model       The model
+     * @param objectValue Its current document
+     * @throws InterruptedException When interrupted while waiting for space.
+     */
+    synchronized void enqueue(GModel model, DBObject objectValue) throws InterruptedException {
+        Object key = keyOf(model);
+        while (this.dirty.size() >= this.capacity && !this.dirty.containsKey(key)) {
+            this.flusher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+            wait();
+        }
+        this.dirty.put(key, new PendingWrite(model, objectValue));
+    }
+
+    /**
+     * Forgets a model that is being removed. If the flush is writing the same document, this waits until it is done,
+     * and a flush that is running will not write it afterwards.
+     *
+     * @param model The model
+     * @throws InterruptedException When interrupted while waiting for the write.
+     */
+    synchronized void discard(GModel model) throws InterruptedException {
+        Object key = keyOf(model);
+        this.dirty.remove(key);
+        if (!this.flushing) return;
+        this.removed.add(key);
+        while (this.writing != null && (key.equals(this.writing) || this.writingModel == model)) {
+            wait();
+        }
+    }
+
+    /**
+     * The amount of models waiting to be written
+     *
+     * @return The amount of dirty models.
+     */
+    public synchronized int size() {
+        return this.dirty.size();
+    }
+
+    /**
+     * Writes every dirty model now, on the calling thread.
+     */
+    public void flush() {
+        synchronized (this.flushLock) {
+            LinkedHashMap<Object, PendingWrite> toWrite;
+            synchronized (this) {
+                if (this.dirty.isEmpty()) return;
+                toWrite = this.dirty;
+                this.dirty = new LinkedHashMap<>();
+                this.flushing = true;
+                notifyAll();
+            }
+            try {
+                for (Map.Entry<Object, PendingWrite> entry : toWrite.entrySet()) {
+                    synchronized (this) {
+                        //Removed since, or saved again and waiting for the next flush
+                        if (this.removed.contains(entry.getKey()) || this.dirty.containsKey(entry.getKey())) continue;
+                        this.writing = entry.getKey();
+                        this.writingModel = entry.getValue().model;
+                    }
+                    try {
+                        entry.getValue().model.write(entry.getValue().document);
+                    } catch (RuntimeException e) {
+                        GModel model = entry.getValue().model;
+                        logger.log(Level.SEVERE, "Cannot write " + model.getClass().getName() + " " + model.getObjectId() + ", its changes are lost", e);
+                    } finally {
+                        synchronized (this) {
+                            this.writing = null;
+                            this.writingModel = null;
+                            notifyAll();
+                        }
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    this.flushing = false;
+                    this.removed.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background flushes, and writes what is left.
+     */
+    public void shutdown() {
+        this.flusher.shutdown();
+        flush();
+    }
+
+    /**
+     * Gets the key of a model in this buffer
+     *
+     * @param model The model
+     * @return Its id, or the instance if it has not been saved yet.
+     */
+    private static Object keyOf(GModel model) {
+        return model.getObjectId() != null ? model.getObjectId() : new InstanceKey(model);
+    }
+
+    /**
+     * A document waiting to be written
+     */
+    private static final class PendingWrite {
+        private final GModel model;
+        private final DBObject document;
+
+        private PendingWrite(GModel model, DBObject document) {
+            this.model = model;
+            this.document = document;
+        }
+    }
+
+    /**
+     * Compares models that have no id yet by instance
+     */
+    private static final class InstanceKey {
+        private final GModel model;
+
+        private InstanceKey(GModel model) {
+            this.model = model;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof InstanceKey && ((InstanceKey) o).model == this.model;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.model);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package net.gearz.jlibrary.base.player;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
@@ -78,6 +79,7 @@ public class TPlayerManager implements Listener {
             return;
         }
         this.collection = this.database.getCollection(details.getPlayerCollection());
+        this.collection.ensureIndex(new BasicDBObject("username", 1)); //Players are always looked up by username
         log.info("Connected to MongoDB!");
         TCooldownManager.database = database;
         this.plugin = tpLugin;
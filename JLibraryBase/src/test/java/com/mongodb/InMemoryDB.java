@@ -0,0 +1,49 @@
+package com.mongodb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link DB} of an {@link InMemoryMongo} that keeps its collections in memory. Only what the library uses is
+ * supported, see {@link InMemoryDBCollection}.
+ */
+public class InMemoryDB extends DB {
+    /**
+     * The collections, by name
+     */
+    private final ConcurrentMap<String, InMemoryDBCollection> collections = new ConcurrentHashMap<>();
+
+    InMemoryDB(InMemoryMongo mongo, String name) {
+        super(mongo, name);
+    }
+
+    @Override
+    public void requestStart() {
+    }
+
+    @Override
+    public void requestDone() {
+    }
+
+    @Override
+    public void requestEnsureConnection() {
+    }
+
+    @Override
+    protected DBCollection doGetCollection(String name) {
+        InMemoryDBCollection collection = this.collections.get(name);
+        if (collection != null) return collection;
+        collection = new InMemoryDBCollection(this, name);
+        InMemoryDBCollection existing = this.collections.putIfAbsent(name, collection);
+        return existing == null ? collection : existing;
+    }
+
+    @Override
+    CommandResult doAuthenticate(MongoCredential credentials) {
+        throw new UnsupportedOperationException("Authentication is not supported in memory");
+    }
+
+    @Override
+    public void cleanCursors(boolean force) {
+    }
+}
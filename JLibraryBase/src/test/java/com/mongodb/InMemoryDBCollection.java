@@ -0,0 +1,182 @@
+package com.mongodb;
+
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+/**
+ * A collection kept in memory by {@link InMemoryDB}. Queries may match on equality and $in, and updates may use $set
+ * and $unset or replace the document. Documents are copied on every read and write, like a real driver would decode
+ * them, so benchmarks still see the allocations of loading a document.
+ */
+public class InMemoryDBCollection extends DBCollection {
+    /**
+     * The documents, by _id, in insertion order
+     */
+    private final Map<Object, DBObject> documents = new LinkedHashMap<>();
+
+    InMemoryDBCollection(DB database, String name) {
+        super(database, name);
+    }
+
+    @Override
+    public synchronized WriteResult insert(List<DBObject> list, WriteConcern concern, DBEncoder encoder) {
+        for (DBObject object : list) {
+            apply(object);
+            if (object.get("_id") instanceof ObjectId) ((ObjectId) object.get("_id")).notNew();
+            if (this.documents.containsKey(object.get("_id")))
+                throw new MongoException.DuplicateKey(result(0, "E11000 duplicate key error"));
+            this.documents.put(object.get("_id"), copy(object));
+        }
+        return new WriteResult(result(list.size(), null), concern);
+    }
+
+    @Override
+    public synchronized WriteResult update(DBObject q, DBObject o, boolean upsert, boolean multi, WriteConcern concern, DBEncoder encoder) {
+        int n = 0;
+        for (DBObject document : this.documents.values()) {
+            if (!matches(document, q)) continue;
+            applyUpdate(document, o);
+            n++;
+            if (!multi) break;
+        }
+        if (n == 0 && upsert) {
+            DBObject document = new BasicDBObject();
+            for (String key : q.keySet()) {
+                if (!(q.get(key) instanceof DBObject)) document.put(key, q.get(key));
+            }
+            applyUpdate(document, o);
+            apply(document);
+            this.documents.put(document.get("_id"), document);
+            n = 1;
+        }
+        return new WriteResult(result(n, null), concern);
+    }
+
+    @Override
+    protected void doapply(DBObject o) {
+    }
+
+    @Override
+    public synchronized WriteResult remove(DBObject o, WriteConcern concern, DBEncoder encoder) {
+        int n = 0;
+        for (Iterator<DBObject> iterator = this.documents.values().iterator(); iterator.hasNext(); ) {
+            if (!matches(iterator.next(), o)) continue;
+            iterator.remove();
+            n++;
+        }
+        return new WriteResult(result(n, null), concern);
+    }
+
+    @Override
+    Iterator<DBObject> __find(DBObject ref, DBObject fields, int numToSkip, int batchSize, int limit, int options, ReadPreference readPref, DBDecoder decoder) {
+        return __find(ref, fields, numToSkip, batchSize, limit, options, readPref, decoder, null);
+    }
+
+    @Override
+    synchronized Iterator<DBObject> __find(DBObject ref, DBObject fields, int numToSkip, int batchSize, int limit, int options, ReadPreference readPref, DBDecoder decoder, DBEncoder encoder) {
+        if (ref != null && ref.containsField("$query")) ref = (DBObject) ref.get("$query");
+        limit = Math.abs(limit);
+        List<DBObject> found = new ArrayList<>();
+        int skipped = 0;
+        for (DBObject document : this.documents.values()) {
+            if (!matches(document, ref)) continue;
+            if (skipped++ < numToSkip) continue;
+            found.add(project(document, fields));
+            if (limit > 0 && found.size() >= limit) break;
+        }
+        return found.iterator();
+    }
+
+    @Override
+    public void createIndex(DBObject keys, DBObject options, DBEncoder encoder) {
+    }
+
+    /**
+     * Removes every document
+     */
+    public synchronized void clear() {
+        this.documents.clear();
+    }
+
+    private static boolean matches(DBObject document, DBObject query) {
+        if (query == null) return true;
+        for (String key : query.keySet()) {
+            Object condition = query.get(key);
+            Object value = document.get(key);
+            if (condition instanceof DBObject && !(condition instanceof List) && ((DBObject) condition).containsField("$in")) {
+                if (!((java.util.Collection) ((DBObject) condition).get("$in")).contains(value)) return false;
+            } else if (condition instanceof DBObject && !(condition instanceof List) && isOperator((DBObject) condition)) {
+                throw new UnsupportedOperationException("Query operators other than $in are not supported in memory");
+            } else if (condition == null ? value != null : !condition.equals(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isOperator(DBObject condition) {
+        for (String key : condition.keySet()) {
+            if (key.startsWith("$")) return true;
+        }
+        return false;
+    }
+
+    private static void applyUpdate(DBObject document, DBObject update) {
+        if (!isOperator(update)) {
+            Object id = document.get("_id");
+            for (String key : new ArrayList<>(document.keySet())) {
+                document.removeField(key);
+            }
+            document.putAll(copy(update));
+            if (id != null) document.put("_id", id);
+            return;
+        }
+        for (String operator : update.keySet()) {
+            DBObject changes = (DBObject) update.get(operator);
+            switch (operator) {
+                case "$set":
+                    for (String key : changes.keySet()) {
+                        document.put(key, copyValue(changes.get(key)));
+                    }
+                    break;
+                case "$unset":
+                    for (String key : changes.keySet()) {
+                        document.removeField(key);
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Update operator " + operator + " is not supported in memory");
+            }
+        }
+    }
+
+    private static DBObject project(DBObject document, DBObject fields) {
+        if (fields == null || fields.keySet().isEmpty()) return copy(document);
+        DBObject projected = new BasicDBObject("_id", document.get("_id"));
+        for (String key : fields.keySet()) {
+            if (document.containsField(key)) projected.put(key, copyValue(document.get(key)));
+        }
+        return projected;
+    }
+
+    private static DBObject copy(DBObject object) {
+        return (DBObject) copyValue(object);
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof BasicDBList) return ((BasicDBList) value).copy();
+        if (value instanceof BasicDBObject) return ((BasicDBObject) value).copy();
+        if (value instanceof DBObject) return new BasicDBObject(((DBObject) value).toMap());
+        return value;
+    }
+
+    private CommandResult result(int n, String error) {
+        CommandResult result = new CommandResult(InMemoryMongo.address);
+        result.put("ok", 1.0);
+        result.put("n", n);
+        result.put("err", error);
+        if (error != null) result.put("code", 11000);
+        return result;
+    }
+}
@@ -0,0 +1,43 @@
+package com.mongodb;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A client whose databases are {@link InMemoryDB}s, so tests and benchmarks measure our code rather than the network.
+ * It never connects to the address it is created with. It has to live in this package because the driver only lets its
+ * own package override some of the methods.
+ */
+public class InMemoryMongo extends Mongo {
+    /**
+     * The address the client pretends to be connected to
+     */
+    static final ServerAddress address = new ServerAddress(InetAddress.getLoopbackAddress());
+
+    /**
+     * The databases, by name
+     */
+    private final ConcurrentMap<String, InMemoryDB> databases = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a client with no databases. Close it when done, to stop the threads of the driver.
+     */
+    public InMemoryMongo() {
+        super(address);
+    }
+
+    @Override
+    public DB getDB(String name) {
+        InMemoryDB database = this.databases.get(name);
+        if (database != null) return database;
+        database = new InMemoryDB(this, name);
+        InMemoryDB existing = this.databases.putIfAbsent(name, database);
+        return existing == null ? database : existing;
+    }
+
+    @Override
+    boolean isMongosConnection() {
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bukkit.Location;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stores {@link Location}s with the codec from {@link CodecRegistry} and reads them back.
+ */
+public class LocationCodecTest {
+    private final FieldCodec<Object> codec = CodecRegistry.codecFor(Location.class);
+
+    @Test
+    public void roundTripWithoutWorld() {
+        Location location = new Location(null, 1.5, 64, -3.25);
+        location.setPitch(12.5f);
+        location.setYaw(-90f);
+        Object stored = this.codec.encode(location);
+        assertFalse(((DBObject) stored).containsField("world"));
+        Location decoded = (Location) this.codec.decode(stored);
+        assertNotNull(decoded);
+        assertNull(decoded.getWorld());
+        assertEquals(1.5, decoded.getX(), 0);
+        assertEquals(64, decoded.getY(), 0);
+        assertEquals(-3.25, decoded.getZ(), 0);
+        assertEquals(12.5f, decoded.getPitch(), 0);
+        assertEquals(-90f, decoded.getYaw(), 0);
+    }
+
+    @Test
+    public void nullWorldIsReadWithoutWorld() {
+        DBObject stored = new BasicDBObject("world", null).append("x", 1.0).append("y", 2.0).append("z", 3.0);
+        Location decoded = (Location) this.codec.decode(stored);
+        assertNotNull(decoded);
+        assertNull(decoded.getWorld());
+        assertEquals(0f, decoded.getPitch(), 0);
+        assertEquals(0f, decoded.getYaw(), 0);
+    }
+
+    @Test
+    public void missingCoordinatesAreReadAsNull() {
+        assertNull(this.codec.decode(new BasicDBObject("x", 1.0).append("y", 2.0)));
+        assertNull(this.codec.decode(new BasicDBObject()));
+    }
+}
@@ -0,0 +1,154 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.InMemoryMongo;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loads documents saved at older {@link SchemaVersion}s through the query by example of {@link GModel}.
+ */
+public class SchemaVersionTest {
+    private DB database;
+    private DBCollection collection;
+
+    @Before
+    public void setUp() {
+        SchemaMigration renameMoney = new SchemaMigration() {
+            @Override
+            public void migrate(DBObject document) {
+                if (document.containsField("money")) document.put("coins", document.removeField("money"));
+            }
+        };
+        GModel.registerMigration(VersionedPlayer.class, 1, renameMoney);
+        GModel.registerMigration(WriteBackPlayer.class, 1, renameMoney);
+        this.database = new InMemoryMongo().getDB("schema_version_test");
+        this.collection = this.database.getCollection("versioned_players");
+        this.collection.remove(new BasicDBObject());
+    }
+
+    @Test
+    public void findOneLoadsDocumentFromBeforeVersions() {
+        this.collection.insert(new BasicDBObject("_class", VersionedPlayer.class.getName())
+                .append("_schema_v", "1.0").append("username", "Twister915").append("money", 10));
+        VersionedPlayer example = new VersionedPlayer(this.database);
+        example.username = "Twister915";
+        VersionedPlayer player = (VersionedPlayer) example.findOne();
+        assertNotNull(player);
+        assertEquals(Integer.valueOf(10), player.coins);
+    }
+
+    @Test
+    public void findManyLoadsDocumentsSavedAtOlderVersion() {
+        this.collection.insert(new BasicDBObject("_class", VersionedPlayer.class.getName())
+                .append("_schema_v", 1).append("username", "Twister915").append("money", 10));
+        this.collection.insert(new BasicDBObject("_class", VersionedPlayer.class.getName())
+                .append("_schema_v", 2).append("username", "Twister915").append("coins", 20));
+        VersionedPlayer example = new VersionedPlayer(this.database);
+        example.username = "Twister915";
+        List<GModel> players = example.findMany();
+        assertEquals(2, players.size());
+        for (GModel player : players) {
+            assertNotNull(((VersionedPlayer) player).coins);
+        }
+    }
+
+    @Test
+    public void fullLoadWritesUpgradeBack() throws InterruptedException {
+        this.collection.insert(new BasicDBObject("_class", WriteBackPlayer.class.getName())
+                .append("_schema_v", "1.0").append("username", "Twister915").append("money", 10));
+        assertNotNull(GModel.query(WriteBackPlayer.class, this.database).where("username", "Twister915").findOne());
+        assertTrue(GModel.flushAsync(5, TimeUnit.SECONDS));
+        DBObject stored = this.collection.findOne();
+        assertEquals(2, stored.get("_schema_v"));
+        assertEquals(10, stored.get("coins"));
+        assertFalse(stored.containsField("money"));
+    }
+
+    @Test
+    public void partialLoadDoesNotWriteUpgradeBack() throws InterruptedException {
+        this.collection.insert(new BasicDBObject("_class", WriteBackPlayer.class.getName())
+                .append("_schema_v", "1.0").append("username", "Twister915").append("money", 10));
+        assertNotNull(GModel.query(WriteBackPlayer.class, this.database).where("username", "Twister915").select("username").findOne());
+        assertTrue(GModel.flushAsync(5, TimeUnit.SECONDS));
+        DBObject stored = this.collection.findOne();
+        assertEquals("1.0", stored.get("_schema_v"));
+        assertEquals(10, stored.get("money"));
+    }
+
+    @Test
+    public void writeBackLeavesDocumentMigratedSinceLoaded() throws Exception {
+        ModelExecutor previous = GModel.getExecutor();
+        ModelExecutor executor = new ModelExecutor(1, 10);
+        GModel.setExecutor(executor);
+        try {
+            this.collection.insert(new BasicDBObject("_class", WriteBackPlayer.class.getName())
+                    .append("_schema_v", 1).append("username", "Twister915").append("money", 10));
+            final CountDownLatch loaded = new CountDownLatch(1);
+            executor.submit(new WriteBackPlayer(this.database), new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    loaded.await();
+                    return null;
+                }
+            }, null);
+            assertNotNull(GModel.query(WriteBackPlayer.class, this.database).where("username", "Twister915").findOne());
+            //Another server migrates and changes the document before our write back runs
+            this.collection.update(new BasicDBObject("username", "Twister915"),
+                    new BasicDBObject("$set", new BasicDBObject("_schema_v", 2).append("coins", 25))
+                            .append("$unset", new BasicDBObject("money", 1)));
+            loaded.countDown();
+            assertTrue(executor.flush(5, TimeUnit.SECONDS));
+            DBObject stored = this.collection.findOne();
+            assertEquals(2, stored.get("_schema_v"));
+            assertEquals(25, stored.get("coins"));
+        } finally {
+            GModel.setExecutor(previous);
+            executor.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @SchemaVersion(2)
+    @Collection(name = "versioned_players")
+    public static class VersionedPlayer extends GModel {
+        @BasicField
+        private String username;
+        @BasicField
+        private Integer coins;
+
+        public VersionedPlayer(DB database) {
+            super(database);
+        }
+
+        public VersionedPlayer(DB database, DBObject dBobject) {
+            super(database, dBobject);
+        }
+    }
+
+    @SchemaVersion(value = 2, writeBack = true)
+    @Collection(name = "versioned_players")
+    public static class WriteBackPlayer extends GModel {
+        @BasicField
+        private String username;
+        @BasicField
+        private Integer coins;
+
+        public WriteBackPlayer(DB database) {
+            super(database);
+        }
+
+        public WriteBackPlayer(DB database, DBObject dBobject) {
+            super(database, dBobject);
+        }
+    }
+}
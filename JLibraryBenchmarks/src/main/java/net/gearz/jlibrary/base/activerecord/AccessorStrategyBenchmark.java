@@ -0,0 +1,87 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.InMemoryMongo;
+import com.mongodb.Mongo;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link AccessorStrategy}s on the fields and constructor of a {@link BenchmarkPlayer}, which is what every
+ * save and load of a model does once per field. The accessors are held the way {@link BasicAnalyzedField} holds them,
+ * so this measures what the default strategy really costs. Run with
+ * {@code java -jar JLibraryBenchmarks/target/benchmarks.jar AccessorStrategyBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessorStrategyBenchmark {
+    /**
+     * The {@link AccessorStrategy}, "methodHandle" or "reflection"
+     */
+    @Param({"methodHandle", "reflection"})
+    public String strategy;
+
+    private Mongo mongo;
+    private DB database;
+    private DBObject document;
+    private BenchmarkPlayer player;
+    private List<FieldAccessor> accessors;
+    private Object[] values;
+    private ModelInstantiator instantiator;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        AccessorStrategy accessorStrategy;
+        if (this.strategy.equals("reflection")) accessorStrategy = new ReflectionAccessorStrategy();
+        else accessorStrategy = new MethodHandleAccessorStrategy();
+        this.mongo = new InMemoryMongo();
+        this.database = this.mongo.getDB("benchmarks");
+        this.player = BenchmarkPlayer.create(this.database, "Twister915", 10);
+        this.document = this.player.getObjectValue();
+        this.accessors = new ArrayList<>();
+        for (Field field : BenchmarkPlayer.class.getDeclaredFields()) {
+            if (!field.isAnnotationPresent(BasicField.class)) continue;
+            field.setAccessible(true);
+            this.accessors.add(accessorStrategy.accessorFor(field));
+        }
+        this.values = new Object[this.accessors.size()];
+        for (int i = 0; i < this.values.length; i++) {
+            this.values[i] = this.accessors.get(i).get(this.player);
+        }
+        this.instantiator = accessorStrategy.instantiatorFor(BenchmarkPlayer.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.mongo.close();
+    }
+
+    @Benchmark
+    public void getFields(Blackhole blackhole) {
+        for (FieldAccessor accessor : this.accessors) {
+            blackhole.consume(accessor.get(this.player));
+        }
+    }
+
+    @Benchmark
+    public void setFields() {
+        for (int i = 0; i < this.values.length; i++) {
+            this.accessors.get(i).set(this.player, this.values[i]);
+        }
+    }
+
+    @Benchmark
+    public GModel newInstance() throws Exception {
+        return this.instantiator.newInstance(this.database, this.document);
+    }
+}
@@ -0,0 +1,31 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * An {@link EmbeddedObject} of {@link BenchmarkPlayer}
+ */
+@Collection(name = "benchmark_homes")
+@Getter
+@Setter
+public class BenchmarkHome extends GModel {
+    @BasicField
+    private String world;
+    @BasicField
+    private Double x;
+    @BasicField
+    private Double y;
+    @BasicField
+    private Double z;
+
+    public BenchmarkHome(DB database) {
+        super(database);
+    }
+
+    public BenchmarkHome(DB database, DBObject dBobject) {
+        super(database, dBobject);
+    }
+}
@@ -0,0 +1,80 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A model shaped like the ones plugins store for players, with the field types that take different paths through
+ * {@link GModel}.
+ */
+@Collection(name = "benchmark_players")
+@Getter
+@Setter
+public class BenchmarkPlayer extends GModel {
+    @BasicField
+    private String username;
+    @BasicField
+    private Integer level;
+    @BasicField
+    private Long timeOnline;
+    @BasicField
+    private Boolean online;
+    @BasicField
+    private Double balance;
+    @BasicField
+    private List<String> friends;
+    @BasicField
+    private Map<String, Integer> stats;
+    @BasicField
+    @EmbeddedObject
+    private BenchmarkHome home;
+
+    public BenchmarkPlayer(DB database) {
+        super(database);
+    }
+
+    public BenchmarkPlayer(DB database, DBObject dBobject) {
+        super(database, dBobject);
+    }
+
+    /**
+     * Creates a player with every field set
+     *
+     * @param database The database
+     * @param username The username
+     * @param friends  How many friends to add
+     * @return The player, which is not saved.
+     */
+    static BenchmarkPlayer create(DB database, String username, int friends) {
+        BenchmarkPlayer player = new BenchmarkPlayer(database);
+        player.setUsername(username);
+        player.setLevel(42);
+        player.setTimeOnline(3600000L);
+        player.setOnline(true);
+        player.setBalance(1250.5);
+        List<String> friendList = new ArrayList<>();
+        for (int i = 0; i < friends; i++) {
+            friendList.add("friend" + i);
+        }
+        player.setFriends(friendList);
+        Map<String, Integer> stats = new HashMap<>();
+        stats.put("kills", 120);
+        stats.put("deaths", 80);
+        stats.put("wins", 15);
+        player.setStats(stats);
+        BenchmarkHome home = new BenchmarkHome(database);
+        home.setWorld("world");
+        home.setX(128.5);
+        home.setY(64.0);
+        home.setZ(-312.5);
+        player.setHome(home);
+        return player;
+    }
+}
@@ -0,0 +1,76 @@
+package net.gearz.jlibrary.base.activerecord;
+
+import com.mongodb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the paths every save and load of a {@link GModel} goes through, against an {@link InMemoryMongo} so only our
+ * own code is measured. Run with {@code java -jar JLibraryBenchmarks/target/benchmarks.jar GModelBenchmark -prof gc}
+ * to see the allocations per operation next to the throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GModelBenchmark {
+    /**
+     * The size of the friends list of each player
+     */
+    @Param({"0", "10", "100"})
+    public int friends;
+    /**
+     * How many of the stored players match the template of {@link #findMany()}
+     */
+    @Param({"100"})
+    public int matching;
+
+    private Mongo mongo;
+    private DB database;
+    private BenchmarkPlayer player;
+    private DBObject document;
+    private BenchmarkPlayer template;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.mongo = new InMemoryMongo();
+        this.database = this.mongo.getDB("benchmarks");
+        this.player = BenchmarkPlayer.create(this.database, "Twister915", this.friends);
+        this.player.save();
+        this.document = this.player.getObjectValue();
+        this.template = BenchmarkPlayer.create(this.database, "template", this.friends);
+        for (int i = 0; i < this.matching; i++) {
+            BenchmarkPlayer.create(this.database, "template", this.friends).save();
+            BenchmarkPlayer.create(this.database, "player" + i, this.friends).save();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.mongo.close();
+    }
+
+    @Benchmark
+    public DBObject getObjectValue() {
+        return this.player.getObjectValue();
+    }
+
+    @Benchmark
+    public BenchmarkPlayer hydrate() {
+        return new BenchmarkPlayer(this.database, this.document);
+    }
+
+    @Benchmark
+    public GModel modelFromOne() {
+        return GModel.modelFromOne(BenchmarkPlayer.class, this.document, this.database);
+    }
+
+    @Benchmark
+    public List<GModel> findMany() {
+        return this.template.findMany();
+    }
+}
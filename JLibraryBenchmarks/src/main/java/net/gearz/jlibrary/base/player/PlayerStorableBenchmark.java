@@ -0,0 +1,96 @@
+package net.gearz.jlibrary.base.player;
+
+import com.mongodb.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the document handling behind {@link TPlayer} storables. A {@link TPlayer} needs a running server, so this
+ * performs the same calls it makes on its player document and collection, using an {@link InMemoryMongo}. Run with
+ * {@code -prof gc} to see the allocations per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerStorableBenchmark {
+    private static final String PREFIX = "bench";
+
+    /**
+     * How many storables are already in the player document
+     */
+    @Param({"10", "100"})
+    public int storables;
+
+    private Mongo mongo;
+    private DBCollection collection;
+    private DBObject playerDocument;
+    private TPlayerStorable storable;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.mongo = new InMemoryMongo();
+        this.collection = this.mongo.getDB("benchmarks").getCollection("users");
+        this.playerDocument = new BasicDBObject("username", "Twister915");
+        this.playerDocument.put("time-online", 0L);
+        this.playerDocument.put("last-seen", Calendar.getInstance().getTimeInMillis());
+        this.playerDocument.put("online", true);
+        for (int i = 0; i < this.storables; i++) {
+            this.playerDocument.put(TPlayer.formatStorable(PREFIX, "storable" + i), i);
+        }
+        this.collection.save(this.playerDocument);
+        this.storable = new TPlayerStorable() {
+            @Override
+            public String getName() {
+                return "storable0";
+            }
+
+            @Override
+            public Object getValue() {
+                return 1;
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.mongo.close();
+    }
+
+    /**
+     * Same as {@link TPlayer#store(net.gearz.jlibrary.base.TPlugin, TPlayerStorable)}
+     */
+    @Benchmark
+    public Object store() {
+        return this.playerDocument.put(TPlayer.formatStorable(PREFIX, this.storable.getName()), this.storable.getValue());
+    }
+
+    /**
+     * Same as {@link TPlayer#getStorable(net.gearz.jlibrary.base.TPlugin, TPlayerStorable)}
+     */
+    @Benchmark
+    public Object getStorable() {
+        return this.playerDocument.get(TPlayer.formatStorable(PREFIX, this.storable.getName()));
+    }
+
+    /**
+     * Same as {@link TPlayer#save()}
+     */
+    @Benchmark
+    public WriteResult save() {
+        return this.collection.save(this.playerDocument);
+    }
+
+    /**
+     * Same as {@link TPlayer#getPlayerObject(String)}
+     */
+    @Benchmark
+    public DBObject load() {
+        DBCursor cursor = this.collection.find(new BasicDBObject("username", "Twister915"));
+        return cursor.hasNext() ? cursor.next() : null;
+    }
+}
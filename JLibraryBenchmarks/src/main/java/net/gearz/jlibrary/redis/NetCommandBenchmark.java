@@ -0,0 +1,166 @@
+package net.gearz.jlibrary.redis;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each step a NetCommand takes from {@link NetCommand#send()} to the {@link NetCommandHandler}s on the
+ * receiving server, with each {@link NetCommandCodec}. Publishing goes to a {@link PublishCountingJedis} and the
+ * dispatch does not subscribe, so no Redis server is needed. Run with
+ * {@code java -jar JLibraryBenchmarks/target/benchmarks.jar NetCommandBenchmark -prof gc} to see the allocations per
+ * message next to the throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetCommandBenchmark {
+    private static final String CHANNEL = "benchmark";
+
+    /**
+     * The shape of the arguments. "flat" is a few strings and numbers, like a player join. "nested" adds a list of
+     * maps, like a party or scoreboard update.
+     */
+    @Param({"flat", "nested"})
+    public String payload;
+    /**
+     * The {@link NetCommandCodec}, "json" or "binary"
+     */
+    @Param({"json", "binary"})
+    public String codec;
+
+    private PublishCountingJedis jedis;
+    private NetCommandDispatch dispatch;
+    private NetDelegate delegate;
+    private RegisteredNetCommand registeredCommand;
+    private RegisteredNetCommand typedCommand;
+    private HashMap<String, Object> args;
+    private NetCommandCodec netCommandCodec;
+    private byte[] channel;
+    private byte[] message;
+    private NetCommandMessage decodedMessage;
+    private BenchmarkHandler handler;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.jedis = new PublishCountingJedis();
+        this.dispatch = new NetCommandDispatch(null);
+        this.handler = new BenchmarkHandler();
+        this.dispatch.registerNetCommands(this.handler);
+        this.delegate = new NetDelegate(CHANNEL, this.dispatch);
+        this.args = arguments(this.payload);
+        this.registeredCommand = new RegisteredNetCommand("party_update", Arrays.asList("server", "player"), new HashMap<Object, java.lang.reflect.Method>());
+        this.registeredCommand.registerHandler(this.handler, BenchmarkHandler.class.getDeclaredMethod("onPartyUpdate", HashMap.class));
+        this.typedCommand = new RegisteredNetCommand("party_update", Arrays.asList("server", "player"), new HashMap<Object, java.lang.reflect.Method>());
+        this.typedCommand.registerHandler(this.handler, BenchmarkHandler.class.getDeclaredMethod("onTypedPartyUpdate", String.class, String.class, int.class, boolean.class));
+        this.netCommandCodec = this.codec.equals("binary") ? NetCommandCodecs.BINARY : NetCommandCodecs.JSON;
+        this.channel = CHANNEL.getBytes("UTF-8");
+        newCommand().send();
+        this.message = this.jedis.getLastMessage();
+        this.decodedMessage = this.netCommandCodec.decode(this.message);
+    }
+
+    private static HashMap<String, Object> arguments(String payload) {
+        HashMap<String, Object> args = new HashMap<>();
+        args.put("server", "lobby-1");
+        args.put("player", "Twister915");
+        args.put("slots", 48);
+        args.put("online", true);
+        if (payload.equals("nested")) {
+            List<Object> members = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                Map<String, Object> member = new HashMap<>();
+                member.put("name", "member" + i);
+                member.put("rank", i % 4);
+                member.put("ready", i % 2 == 0);
+                members.add(member);
+            }
+            args.put("members", members);
+        }
+        return args;
+    }
+
+    private NetCommand newCommand() {
+        NetCommand command = NetCommand.beginBuilding(this.jedis, CHANNEL, "party_update").withCodec(this.netCommandCodec);
+        for (Map.Entry<String, Object> entry : this.args.entrySet()) {
+            command.withArg(entry.getKey(), entry.getValue());
+        }
+        return command;
+    }
+
+    /**
+     * Building and encoding the command, then publishing
+     */
+    @Benchmark
+    public long send() {
+        newCommand().send();
+        return this.jedis.getPublished();
+    }
+
+    /**
+     * Decoding a message into the arguments given to handlers
+     */
+    @Benchmark
+    public NetCommandMessage decode() {
+        return this.netCommandCodec.decode(this.message);
+    }
+
+    /**
+     * Everything on the receiving side: decoding, dispatching and calling the handler
+     */
+    @Benchmark
+    public long onMessage() {
+        this.delegate.onMessage(this.channel, this.message);
+        return this.handler.calls;
+    }
+
+    /**
+     * Dispatching an already decoded message
+     */
+    @Benchmark
+    public boolean handleCommand() {
+        return this.dispatch.handleCommand(this.decodedMessage.getName(), this.decodedMessage.getArgs());
+    }
+
+    /**
+     * Calling the handler with the converted arguments
+     */
+    @Benchmark
+    public long callHandlers() {
+        this.registeredCommand.callHandlers(this.args);
+        return this.handler.calls;
+    }
+
+    /**
+     * Calling a handler whose parameters are bound with {@link NetArg}
+     */
+    @Benchmark
+    public long callTypedHandlers() {
+        this.typedCommand.callHandlers(this.args);
+        return this.handler.calls;
+    }
+
+    /**
+     * Handles the command sent by the benchmark
+     */
+    public static class BenchmarkHandler {
+        private long calls;
+        private int lastSize;
+
+        @NetCommandHandler(name = "party_update", args = {"server", "player"})
+        public void onPartyUpdate(HashMap<String, Object> data) {
+            this.calls++;
+            this.lastSize = data.size();
+        }
+
+        public void onTypedPartyUpdate(@NetArg("server") String server, @NetArg("player") String player,
+                                       @NetArg("slots") int slots, @NetArg("online") boolean online) {
+            this.calls++;
+            this.lastSize = slots;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.gearz.jlibrary.redis;
+
+import lombok.Getter;
+import redis.clients.jedis.Jedis;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link Jedis} that never connects. Published messages are counted and kept instead of being sent, so benchmarks
+ * measure building the message and not the network.
+ */
+public class PublishCountingJedis extends Jedis {
+    /**
+     * How many messages were published
+     */
+    @Getter
+    private long published;
+    /**
+     * The bytes published, over every message
+     */
+    @Getter
+    private long publishedBytes;
+    /**
+     * The last message published
+     */
+    @Getter
+    private byte[] lastMessage;
+
+    public PublishCountingJedis() {
+        super("localhost");
+    }
+
+    @Override
+    public Long publish(byte[] channel, byte[] message) {
+        this.published++;
+        this.publishedBytes += message.length;
+        this.lastMessage = message;
+        return 1L;
+    }
+
+    @Override
+    public Long publish(String channel, String message) {
+        return publish(channel.getBytes(StandardCharsets.UTF_8), message.getBytes(StandardCharsets.UTF_8));
+    }
+}
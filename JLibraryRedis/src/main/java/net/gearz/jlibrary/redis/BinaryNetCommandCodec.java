@@ -0,0 +1,305 @@
+package net.gearz.jlibrary.redis;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A compact binary format. After the header comes the command name, the amount of arguments, and then each argument
+ * as its key followed by a typed value. Strings are UTF-8 and lengths and integers are varints, so most arguments take
+ * a few bytes. Names and keys are interned on both sides, so repeated commands do not encode or create them again.
+ * <p/>
+ * Values keep their type: Integer, Long, Float, Double, Boolean, String, null, and lists and maps of those. Byte and
+ * Short are sent as Integer, Character as String, arrays and collections as lists, and anything else as its
+ * {@link Object#toString()}, like the JSON format does.
+ */
+final class BinaryNetCommandCodec implements NetCommandCodec {
+    static final byte HEADER = 0x01;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte TRUE = 6;
+    private static final byte FALSE = 7;
+    private static final byte LIST = 8;
+    private static final byte MAP = 9;
+
+    /**
+     * The most names and keys kept encoded
+     */
+    private static final int MAX_ENCODED_NAMES = 1024;
+
+    private final ConcurrentMap<String, byte[]> encodedNames = new ConcurrentHashMap<>();
+    private final StringInterner interner = new StringInterner(1024);
+
+    @Override
+    public byte getHeader() {
+        return HEADER;
+    }
+
+    @Override
+    public byte[] encode(String name, Map<String, Object> args) {
+        Output output = new Output(64);
+        output.writeByte(HEADER);
+        writeName(output, name);
+        output.writeVarInt(args.size());
+        for (Map.Entry<String, Object> entry : args.entrySet()) {
+            writeName(output, entry.getKey());
+            writeValue(output, entry.getValue());
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public NetCommandMessage decode(byte[] message) {
+        try {
+            Input input = new Input(message);
+            if (input.readByte() != HEADER) throw new IllegalArgumentException("Not a binary net command");
+            String name = readName(input);
+            HashMap<String, Object> args = readMap(input);
+            return new NetCommandMessage(name, args);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated net command", e);
+        }
+    }
+
+    private void writeName(Output output, String name) {
+        byte[] bytes = this.encodedNames.get(name);
+        if (bytes == null) {
+            bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (this.encodedNames.size() < MAX_ENCODED_NAMES) this.encodedNames.put(name, bytes);
+        }
+        output.writeVarInt(bytes.length);
+        output.writeBytes(bytes);
+    }
+
+    private String readName(Input input) {
+        int length = input.readVarInt();
+        String name = this.interner.intern(input.buffer, input.position, length);
+        input.skip(length);
+        return name;
+    }
+
+    private void writeValue(Output output, Object value) {
+        if (value == null) {
+            output.writeByte(NULL);
+        } else if (value instanceof String) {
+            output.writeByte(STRING);
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            output.writeVarInt(bytes.length);
+            output.writeBytes(bytes);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            output.writeByte(INT);
+            int i = ((Number) value).intValue();
+            output.writeVarInt((i << 1) ^ (i >> 31));
+        } else if (value instanceof Long) {
+            output.writeByte(LONG);
+            long l = (Long) value;
+            output.writeVarLong((l << 1) ^ (l >> 63));
+        } else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Boolean) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Map) {
+            output.writeByte(MAP);
+            Map<?, ?> map = (Map<?, ?>) value;
+            output.writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeName(output, String.valueOf(entry.getKey()));
+                writeValue(output, entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            output.writeByte(LIST);
+            Collection<?> collection = (Collection<?>) value;
+            output.writeVarInt(collection.size());
+            for (Object element : collection) {
+                writeValue(output, element);
+            }
+        } else if (value.getClass().isArray()) {
+            output.writeByte(LIST);
+            int length = Array.getLength(value);
+            output.writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(output, Array.get(value, i));
+            }
+        } else {
+            writeValue(output, value.toString());
+        }
+    }
+
+    private Object readValue(Input input) {
+        byte type = input.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                int length = input.readVarInt();
+                String string = new String(input.buffer, input.position, length, StandardCharsets.UTF_8);
+                input.skip(length);
+                return string;
+            case INT:
+                int i = input.readVarInt();
+                return (i >>> 1) ^ -(i & 1);
+            case LONG:
+                long l = input.readVarLong();
+                return (l >>> 1) ^ -(l & 1);
+            case DOUBLE:
+                return Double.longBitsToDouble(input.readLong());
+            case FLOAT:
+                return Float.intBitsToFloat(input.readInt());
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case LIST:
+                int size = input.readVarInt();
+                ArrayList<Object> list = new ArrayList<>(Math.min(size, input.remaining()));
+                for (int index = 0; index < size; index++) {
+                    list.add(readValue(input));
+                }
+                return list;
+            case MAP:
+                return readMap(input);
+            default:
+                throw new IllegalArgumentException("Unknown value type " + type);
+        }
+    }
+
+    private HashMap<String, Object> readMap(Input input) {
+        int size = input.readVarInt();
+        HashMap<String, Object> map = new HashMap<>(Math.min(size, input.remaining()) * 4 / 3 + 1);
+        for (int index = 0; index < size; index++) {
+            String key = readName(input);
+            map.put(key, readValue(input));
+        }
+        return map;
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int position;
+
+        private Output(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        private void ensure(int bytes) {
+            if (this.position + bytes <= this.buffer.length) return;
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + bytes));
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            this.buffer[this.position++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+            this.position += bytes.length;
+        }
+
+        private void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                this.buffer[this.position++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                this.buffer[this.position++] = (byte) (value >>> shift);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(this.buffer, this.position);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buffer;
+        private int position;
+
+        private Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private int remaining() {
+            return this.buffer.length - this.position;
+        }
+
+        private void skip(int bytes) {
+            if (bytes < 0 || bytes > remaining()) throw new IndexOutOfBoundsException();
+            this.position += bytes;
+        }
+
+        private byte readByte() {
+            return this.buffer[this.position++];
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private int readInt() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (readByte() & 0xFF);
+            }
+            return value;
+        }
+
+        private long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (readByte() & 0xFF);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package net.gearz.jlibrary.redis;
+
+/**
+ * How a {@link NetCommandExecutor} orders the handling of received commands.
+ */
+public enum DispatchMode {
+    /**
+     * One command at a time, in the order they were received.
+     */
+    SERIAL,
+    /**
+     * Commands with the same key are handled one at a time in the order they were received, other keys in parallel.
+     * The key is the argument named by {@link NetCommandHandler#orderBy()}, or else the name of the command.
+     */
+    ORDERED_BY_KEY,
+    /**
+     * Any command on any thread, without ordering.
+     */
+    PARALLEL
+}
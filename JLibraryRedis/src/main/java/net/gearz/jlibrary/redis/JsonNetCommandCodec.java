@@ -0,0 +1,94 @@
+package net.gearz.jlibrary.redis;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The original format: {"command": name, "data": {args}}. Servers without codecs can read it.
+ */
+final class JsonNetCommandCodec implements NetCommandCodec {
+    @Override
+    public byte getHeader() {
+        return '{';
+    }
+
+    @Override
+    public byte[] encode(String name, Map<String, Object> args) {
+        //JSONObject.toString() returns null instead of throwing when a value cannot be written, such as NaN
+        String data = new JSONObject(args).toString();
+        if (data == null) throw new IllegalArgumentException("The arguments of " + name + " cannot be written as JSON");
+        return ("{\"command\":" + JSONObject.quote(name) + ",\"data\":" + data + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public NetCommandMessage decode(byte[] message) {
+        try {
+            JSONObject object = new JSONObject(new String(message, StandardCharsets.UTF_8));
+            return new NetCommandMessage(object.getString("command"), objectToHashMap(object.getJSONObject("data")));
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Converts a JSONObject into a Hash Map
+     *
+     * @param data The data object to convert
+     * @return The HashMap<String, Object>
+     * @throws org.json.JSONException
+     */
+    static HashMap<String, Object> objectToHashMap(JSONObject data) throws JSONException {
+        HashMap<String, Object> returnVal = new HashMap<>();
+        Iterator i = data.keys();
+        while (i.hasNext()) {
+            Object next = i.next();
+            if (!(next instanceof String)) continue;
+            String key = (String) next;
+            Object o = data.get(key);
+            returnVal.put(key, parseObject(o)); //OMG SO RECURSIVE
+        }
+        return returnVal;
+    }
+
+    /**
+     * Converts an JSONArray into an ArrayList
+     *
+     * @param array the array to convert
+     * @return the ArrayList object.
+     * @throws org.json.JSONException
+     */
+    private static ArrayList<Object> objectToArrayList(JSONArray array) throws JSONException {
+        ArrayList<Object> objects = new ArrayList<>();
+        int index = 0;
+        while (index < array.length()) {
+            objects.add(parseObject(array.get(index))); //OMG SO RECURSIVE
+            index++;
+        }
+        return objects;
+    }
+
+    /**
+     * Runs the proper conversions on an object to make it readable.
+     *
+     * @param obj The object that you wish to convert.
+     * @return The converted object.
+     * @throws org.json.JSONException
+     */
+    private static Object parseObject(Object obj) throws JSONException {
+        Object o = obj;
+        if (o instanceof JSONObject) {
+            o = objectToHashMap((JSONObject) o);
+        }
+        if (o instanceof JSONArray) {
+            o = objectToArrayList((JSONArray) o);
+        }
+        return o;
+    }
+}
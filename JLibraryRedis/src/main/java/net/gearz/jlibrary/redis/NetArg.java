@@ -0,0 +1,26 @@
+package net.gearz.jlibrary.redis;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds an argument of a NetCommand to a parameter of a {@link NetCommandHandler} method, or to a field of the payload
+ * class a handler accepts. Values are converted to the type of the parameter or field, so numbers can be received as
+ * any number type, and strings as enums or UUIDs.
+ * <pre>
+ * &#64;NetCommandHandler(name = "party_invite", args = {"player", "party"})
+ * public void onInvite(&#64;NetArg("player") String player, &#64;NetArg("party") UUID party) {
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.PARAMETER, ElementType.FIELD})
+public @interface NetArg {
+    /**
+     * The name of the argument
+     *
+     * @return The name, which may be empty on fields to use the name of the field.
+     */
+    public String value() default "";
+}
@@ -1,11 +1,13 @@
 package net.gearz.jlibrary.redis;
 
 import lombok.Getter;
-import org.json.JSONException;
-import org.json.JSONObject;
 import redis.clients.jedis.Jedis;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * The NetCommand class is used solely to build commands to send. :D
@@ -27,8 +29,19 @@ public class NetCommand {
      */
     private Jedis jedis;
 
+    /**
+     * Publishes the command instead of {@link #jedis}, when it was built with one
+     */
+    private NetCommandPublisher publisher;
+
     private String channel;
 
+    /**
+     * The codec the command is sent with
+     */
+    @Getter
+    private NetCommandCodec codec;
+
     /**
      * Private constructor
      *
@@ -39,6 +52,7 @@ public class NetCommand {
         this.args = new HashMap<>();
         this.jedis = jedis;
         this.channel = channel;
+        this.codec = NetCommandCodecs.getDefaultCodec();
     }
 
     /**
@@ -51,6 +65,20 @@ public class NetCommand {
         return new NetCommand(name, jedis, channel);
     }
 
+    /**
+     * Create a command with the name, which is sent in a batch by a publisher.
+     *
+     * @param publisher The publisher, such as {@link NetCommandDispatch#getPublisher()}
+     * @param channel   The channel
+     * @param name      The name of the command.
+     * @return The NetCommand object. Ready for building.
+     */
+    public static NetCommand beginBuilding(NetCommandPublisher publisher, String channel, String name) {
+        NetCommand command = new NetCommand(name, null, channel);
+        command.publisher = publisher;
+        return command;
+    }
+
     /**
      * Add an argument
      *
@@ -63,19 +91,48 @@ public class NetCommand {
         return this;
     }
 
+    /**
+     * Use another codec than {@link NetCommandCodecs#getDefaultCodec()}
+     *
+     * @param codec The codec
+     * @return this object.
+     */
+    public NetCommand withCodec(NetCommandCodec codec) {
+        this.codec = codec;
+        return this;
+    }
+
     /**
      * Commits the command, and broadcasts it in the channel.
      */
     public void send() {
-        JSONObject jsonObject = new JSONObject();
+        byte[] message;
         try {
-            jsonObject.put("command", name);
-            JSONObject argsObject = new JSONObject(args);
-            jsonObject.put("data", argsObject);
-        } catch (JSONException e) {
+            message = this.codec.encode(this.name, this.args);
+        } catch (IllegalArgumentException e) {
             e.printStackTrace();
             return;
         }
-        jedis.publish(this.channel, jsonObject.toString());
+        if (this.publisher != null) this.publisher.publish(this.channel, message);
+        else jedis.publish(this.channel.getBytes(StandardCharsets.UTF_8), message);
+    }
+
+    /**
+     * Commits the command, and broadcasts it in the channel. Only a command built with a {@link NetCommandPublisher}
+     * is sent in the background, otherwise this publishes before returning.
+     *
+     * @return A future for the amount of servers that received the command.
+     */
+    public Future<Long> sendAsync() {
+        final byte[] message = this.codec.encode(this.name, this.args);
+        if (this.publisher != null) return this.publisher.publish(this.channel, message);
+        FutureTask<Long> task = new FutureTask<>(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return jedis.publish(channel.getBytes(StandardCharsets.UTF_8), message);
+            }
+        });
+        task.run();
+        return task;
     }
 }
@@ -0,0 +1,36 @@
+package net.gearz.jlibrary.redis;
+
+import java.util.Map;
+
+/**
+ * Turns NetCommands into the bytes published on the channel, and back. The first byte of every encoded command is the
+ * {@link #getHeader() header} of its codec, which is how the receiver picks the codec to decode it with. Codecs are
+ * registered in {@link NetCommandCodecs}.
+ */
+public interface NetCommandCodec {
+    /**
+     * Gets the first byte of every command this encodes
+     *
+     * @return The header.
+     */
+    public byte getHeader();
+
+    /**
+     * Encodes a command
+     *
+     * @param name The name of the command
+     * @param args The arguments
+     * @return The message to publish, starting with the header.
+     * @throws IllegalArgumentException When an argument cannot be encoded by this codec.
+     */
+    public byte[] encode(String name, Map<String, Object> args);
+
+    /**
+     * Decodes a command
+     *
+     * @param message The received message, starting with the header
+     * @return The command.
+     * @throws IllegalArgumentException When the message is not valid for this codec.
+     */
+    public NetCommandMessage decode(byte[] message);
+}
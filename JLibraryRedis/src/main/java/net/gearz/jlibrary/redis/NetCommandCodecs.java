@@ -0,0 +1,56 @@
+package net.gearz.jlibrary.redis;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The {@link NetCommandCodec}s known to this server, by header.
+ * <p/>
+ * Commands are sent as {@link #JSON} by default, which every version can read. Switch the default to {@link #BINARY}
+ * once every server on the channel can decode it.
+ */
+public final class NetCommandCodecs {
+    /**
+     * The original JSON format. Its header is the opening brace of the JSON object.
+     */
+    public static final NetCommandCodec JSON = new JsonNetCommandCodec();
+    /**
+     * The compact binary format
+     */
+    public static final NetCommandCodec BINARY = new BinaryNetCommandCodec();
+
+    private static final NetCommandCodec[] codecs = new NetCommandCodec[256];
+    /**
+     * The codec commands are sent with when none is given
+     */
+    @Getter
+    @Setter
+    private static volatile NetCommandCodec defaultCodec = JSON;
+
+    static {
+        register(JSON);
+        register(BINARY);
+    }
+
+    private NetCommandCodecs() {
+    }
+
+    /**
+     * Registers a codec, replacing any codec with the same header
+     *
+     * @param codec The codec
+     */
+    public static synchronized void register(NetCommandCodec codec) {
+        codecs[codec.getHeader() & 0xFF] = codec;
+    }
+
+    /**
+     * Gets the codec for a header
+     *
+     * @param header The first byte of a message
+     * @return The codec, or null if there is none for this header.
+     */
+    public static NetCommandCodec forHeader(byte header) {
+        return codecs[header & 0xFF];
+    }
+}
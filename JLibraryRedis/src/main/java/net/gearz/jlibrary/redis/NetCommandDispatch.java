@@ -1,7 +1,8 @@
 package net.gearz.jlibrary.redis;
 
+import lombok.AccessLevel;
 import lombok.Getter;
-import org.json.JSONArray;
+import lombok.Setter;
 import org.json.JSONException;
 import org.json.JSONObject;
 import redis.clients.jedis.JedisPool;
@@ -20,46 +21,111 @@ public class NetCommandDispatch {
      * The delegate thread.
      */
     private Thread delegateThread;
+    /**
+     * Subscribes to the channel, null when this dispatch does not subscribe.
+     */
+    @Getter
+    private NetDelegate subscriber;
     /**
      * This field holds a cached value. Check inline comment
      */
     private Map<String, NetCommandHandler> nameToAnnotationMap; //This is for caching the what would be for loop statement for finding what the command is based on a name.
     /**
-     * This field holds the net commands to their respective annotations.
+     * This field holds the net commands by their names.
      */
-    private Map<NetCommandHandler, RegisteredNetCommand> netCommands;
+    private Map<String, RegisteredNetCommand> netCommands;
 
     @Getter
     private JedisPool pool;
+    /**
+     * Where handlers are called. Null to call them on the subscriber thread.
+     */
+    @Getter
+    private NetCommandExecutor executor;
+    /**
+     * Publishes commands in batches, created when first used
+     */
+    private NetCommandPublisher publisher;
+    /**
+     * Receives the replies to calls from this server, may be null
+     */
+    @Setter(AccessLevel.PACKAGE)
+    private volatile NetCommandRpc rpc;
 
     /**
      * This creates a new NetCommandDispatch. Nothing special about this, move along :).
      */
     public NetCommandDispatch(JedisPool pool, String chan) {
+        this(pool, chan, null);
+    }
+
+    /**
+     * Creates a NetCommandDispatch that calls the handlers through an executor, instead of on the subscriber thread.
+     *
+     * @param pool     The pool to subscribe with
+     * @param chan     The channel
+     * @param executor Where handlers are called, may be null.
+     */
+    public NetCommandDispatch(JedisPool pool, String chan, NetCommandExecutor executor) {
+        this(pool);
+        this.executor = executor;
+        this.subscriber = new NetDelegate(chan, this);
+        this.delegateThread = new Thread(this.subscriber, "NetCommand-Subscriber");
+        this.delegateThread.start();
+    }
+
+    /**
+     * Creates a NetCommandDispatch that does not subscribe to anything. Commands have to be given to
+     * {@link #handleCommand(String, HashMap)} or to a {@link NetDelegate} by the caller.
+     *
+     * @param pool The pool, may be null if nothing uses it.
+     */
+    NetCommandDispatch(JedisPool pool) {
         this.netCommands = new HashMap<>();
         this.nameToAnnotationMap = new HashMap<>();
         this.pool = pool;
-        NetDelegate netDelegate = new NetDelegate(chan, this);
-        this.delegateThread = new Thread(netDelegate);
-        this.delegateThread.start();
+    }
+
+    /**
+     * Gets a publisher that sends commands in batches, using the pool of this dispatch.
+     *
+     * @return The publisher, with the default batch settings.
+     */
+    public synchronized NetCommandPublisher getPublisher() {
+        if (this.publisher == null) this.publisher = new NetCommandPublisher(this.pool);
+        return this.publisher;
     }
 
     /**
      * This will register an object to get calls when any annotated methods ask for them.
+     * All handlers of a command must declare the same args, orderBy and mainThread, since they are called together.
      *
      * @param o The object to register.
+     * @throws IllegalArgumentException When a handler declares other settings than the handlers of the same command
+     *                                  registered before. Nothing of the object is registered then.
      */
     public void registerNetCommands(Object o) {
+        Map<NetHandlerInvoker, NetCommandHandler> handlers = new LinkedHashMap<>();
+        Map<String, NetCommandHandler> registering = new HashMap<>();
         for (Method m : o.getClass().getDeclaredMethods()) {
             if (!m.isAnnotationPresent(NetCommandHandler.class)) continue;
-            if (m.getParameterTypes().length != 1) continue;
-            if (!m.getParameterTypes()[0].equals(HashMap.class)) continue;
+            NetHandlerInvoker invoker = NetHandlerInvoker.bind(o, m);
+            if (invoker == null) continue;
             NetCommandHandler annotation = m.getAnnotation(NetCommandHandler.class);
-            RegisteredNetCommand command;
-            if (!this.netCommands.containsKey(annotation)) {
+            NetCommandHandler existing = this.nameToAnnotationMap.get(annotation.name());
+            if (existing == null) existing = registering.get(annotation.name());
+            if (existing != null && !sameSettings(existing, annotation))
+                throw new IllegalArgumentException(m + " declares other args, orderBy or mainThread than the other handlers of " + annotation.name());
+            registering.put(annotation.name(), annotation);
+            handlers.put(invoker, annotation);
+        }
+        for (Map.Entry<NetHandlerInvoker, NetCommandHandler> handler : handlers.entrySet()) {
+            NetCommandHandler annotation = handler.getValue();
+            RegisteredNetCommand command = this.netCommands.get(annotation.name());
+            if (command == null) {
                 command = new RegisteredNetCommand(
                         annotation.name(), Arrays.asList(annotation.args()), new HashMap<Object, Method>());
-                this.netCommands.put(annotation, command);
+                this.netCommands.put(annotation.name(), command);
                 this.nameToAnnotationMap.put(annotation.name(), annotation); //Other logic
                 /*
                 Assumed - String name is what we're searching for
@@ -72,93 +138,111 @@ public class NetCommandDispatch {
                 }
                 Easier logic is to just store the result of that.
                 */
-            } else {
-                command = this.netCommands.get(annotation);
             }
-            command.registerHandler(o, m);
+            command.registerHandler(handler.getKey());
         }
     }
 
+    private static boolean sameSettings(NetCommandHandler a, NetCommandHandler b) {
+        return new HashSet<>(Arrays.asList(a.args())).equals(new HashSet<>(Arrays.asList(b.args()))) &&
+                a.orderBy().equals(b.orderBy()) && a.mainThread() == b.mainThread();
+    }
+
     /**
      * This will handle a command, and send calls to the respective NetCommand handlers.
      *
      * @param object The JSON Object that represents the command sent
-     * @return If the NetCommand was handled.
+     * @return If the NetCommand was handled, or queued when there is an {@link NetCommandExecutor}.
      */
     public boolean handleCommand(JSONObject object) {
-        String command;
         try {
-            command = object.getString("command");
-            NetCommandHandler netCommandHandler = this.nameToAnnotationMap.get(command);
-            if (netCommandHandler == null) {
-                return false;
-            }
-            JSONObject data = object.getJSONObject("data");
-            HashMap<String, Object> stringObjectHashMap = objectToHashMap(data);
-            Set<String> strings = stringObjectHashMap.keySet();
-            if (!strings.containsAll(Arrays.asList(netCommandHandler.args()))) return false;
-            RegisteredNetCommand registeredNetCommand = this.netCommands.get(netCommandHandler);
-            registeredNetCommand.callHandlers(stringObjectHashMap);
-
+            return handleCommand(object.getString("command"), JsonNetCommandCodec.objectToHashMap(object.getJSONObject("data")));
         } catch (JSONException e) {
             e.printStackTrace();
             return false;
         }
-        return true;
     }
 
     /**
-     * Converts a JSONObject into a Hash Map
+     * Handles a message received on the channel, decoding it with the {@link NetCommandCodec} of its header.
      *
-     * @param data The data object to convert
-     * @return The HashMap<String, Object>
-     * @throws org.json.JSONException
-     */
-    private HashMap<String, Object> objectToHashMap(JSONObject data) throws JSONException {
-        HashMap<String, Object> returnVal = new HashMap<>();
-        Iterator i = data.keys();
-        while (i.hasNext()) {
-            Object next = i.next();
-            if (!(next instanceof String)) continue;
-            String key = (String) next;
-            Object o = data.get(key);
-            returnVal.put(key, parseObject(o)); //OMG SO RECURSIVE
-        }
-        return returnVal;
+     * @param message The message
+     * @return If the NetCommand was handled, or queued when there is an {@link NetCommandExecutor}.
+     * @throws IllegalArgumentException When the message cannot be decoded.
+     */
+    boolean handleMessage(byte[] message) {
+        if (message.length == 0) throw new IllegalArgumentException("Empty net command message");
+        NetCommandCodec codec = NetCommandCodecs.forHeader(message[0]);
+        if (codec == null) throw new IllegalArgumentException("No net command codec for header " + message[0]);
+        NetCommandMessage decoded = codec.decode(message);
+        return handleCommand(decoded.getName(), decoded.getArgs());
     }
 
     /**
-     * Converts an JSONArray into an ArrayList
+     * This will handle a decoded command, and send calls to the respective NetCommand handlers.
      *
-     * @param array the array to convert
-     * @return the ArrayList object.
-     * @throws org.json.JSONException
-     */
-    private ArrayList<Object> objectToArrayList(JSONArray array) throws JSONException {
-        ArrayList<Object> objects = new ArrayList<>();
-        int index = 0;
-        while (index < array.length()) {
-            objects.add(parseObject(array.get(index))); //OMG SO RECURSIVE
-            index++;
+     * @param command The name of the command
+     * @param args    The arguments
+     * @return If the NetCommand was handled, or queued when there is an {@link NetCommandExecutor}.
+     */
+    public boolean handleCommand(final String command, final HashMap<String, Object> args) {
+        if (command.equals(NetCommandRpc.REPLY_COMMAND)) {
+            NetCommandRpc rpc = this.rpc;
+            if (rpc == null) return false;
+            rpc.receiveReply(args);
+            return true;
         }
-        return objects;
+        NetCommandHandler netCommandHandler = this.nameToAnnotationMap.get(command);
+        if (netCommandHandler == null) {
+            return false;
+        }
+        final Object rpcId = args.remove(NetCommandRpc.ID_KEY);
+        final Object replyChannel = args.remove(NetCommandRpc.REPLY_CHANNEL_KEY);
+        final RegisteredNetCommand registeredNetCommand = this.netCommands.get(command);
+        if (!registeredNetCommand.hasArgs(args)) {
+            if (rpcId != null && replyChannel != null)
+                reply(rpcId, replyChannel.toString(), null, "Missing arguments for " + command + ", it takes " + registeredNetCommand.getArgs());
+            return false;
+        }
+        Runnable call = new Runnable() {
+            @Override
+            public void run() {
+                Object result = registeredNetCommand.callHandlers(args);
+                if (rpcId != null && replyChannel != null) reply(rpcId, replyChannel.toString(), result, null);
+            }
+        };
+        if (this.executor == null) {
+            call.run();
+            return true;
+        }
+        Object key = netCommandHandler.orderBy().equals("") ? null : args.get(netCommandHandler.orderBy());
+        return this.executor.execute(key == null ? command : key, netCommandHandler.mainThread(), call);
     }
 
     /**
-     * Runs the proper conversions on an object to make it readable.
+     * Sends what a handler returned to the server that called it. If the codec cannot encode the value, an error is
+     * sent instead, so the caller does not wait for its timeout.
      *
-     * @param obj The object that you wish to convert.
-     * @return The converted object.
-     * @throws org.json.JSONException
-     */
-    private Object parseObject(Object obj) throws JSONException {
-        Object o = obj;
-        if (o instanceof JSONObject) {
-            o = objectToHashMap((JSONObject) o);
-        }
-        if (o instanceof JSONArray) {
-            o = objectToArrayList((JSONArray) o);
+     * @param rpcId        The correlation id of the call
+     * @param replyChannel The reply channel of the caller
+     * @param value        The value
+     * @param error        Why the command was not handled, or null if it was
+     */
+    private void reply(Object rpcId, String replyChannel, Object value, String error) {
+        try {
+            buildReply(rpcId, replyChannel, value, error).sendAsync();
+        } catch (IllegalArgumentException e) {
+            buildReply(rpcId, replyChannel, null, "Cannot encode the reply: " + e.getMessage()).send();
         }
-        return o;
+    }
+
+    private NetCommand buildReply(Object rpcId, String replyChannel, Object value, String error) {
+        NetCommandRpc rpc = this.rpc;
+        NetCommand reply = NetCommand.beginBuilding(getPublisher(), replyChannel, NetCommandRpc.REPLY_COMMAND)
+                .withArg(NetCommandRpc.ID_KEY, rpcId)
+                .withArg(NetCommandRpc.NODE_KEY, rpc == null ? null : rpc.getNodeId())
+                .withArg(NetCommandRpc.VALUE_KEY, value);
+        if (error != null) reply.withArg(NetCommandRpc.ERROR_KEY, error);
+        return reply;
     }
 }
@@ -0,0 +1,155 @@
+package net.gearz.jlibrary.redis;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link NetCommandHandler}s away from the subscriber thread, so one slow handler does not hold up the whole
+ * channel. Commands are spread over lanes with bounded queues, according to the {@link DispatchMode}. What happens when
+ * a queue is full is decided by the {@link OverflowPolicy}.
+ * <p/>
+ * Commands with {@link NetCommandHandler#mainThread()} are given to the main thread executor instead, when there is
+ * one.
+ */
+public final class NetCommandExecutor {
+    private final ThreadPoolExecutor[] lanes;
+    /**
+     * Where {@link NetCommandHandler#mainThread()} commands are handled, such as {@code TPlugin.getMainThreadExecutor()}.
+     * Null to handle them like every other command.
+     */
+    private final Executor mainThreadExecutor;
+    /**
+     * The commands dropped because a queue was full
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates an executor
+     *
+     * @param mode               How commands are ordered
+     * @param threads            The amount of threads
+     * @param queueCapacity      The most commands waiting, per lane when ordered by key
+     * @param overflowPolicy     What to do when a queue is full
+     * @param mainThreadExecutor Where {@link NetCommandHandler#mainThread()} commands are handled, may be null.
+     */
+    public NetCommandExecutor(DispatchMode mode, int threads, int queueCapacity, final OverflowPolicy overflowPolicy, Executor mainThreadExecutor) {
+        this.mainThreadExecutor = mainThreadExecutor;
+        threads = mode == DispatchMode.SERIAL ? 1 : Math.max(1, threads);
+        this.lanes = new ThreadPoolExecutor[mode == DispatchMode.ORDERED_BY_KEY ? threads : 1];
+        int laneThreads = mode == DispatchMode.PARALLEL ? threads : 1;
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "NetCommand-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        RejectedExecutionHandler overflow = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) throw new RejectedExecutionException("The net command executor has been shut down");
+                switch (overflowPolicy) {
+                    case BLOCK:
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        dropped.incrementAndGet();
+                        throw new RejectedExecutionException("The net command queue is full");
+                    case DROP_OLDEST:
+                        if (executor.getQueue().poll() != null) dropped.incrementAndGet();
+                        executor.execute(r);
+                        break;
+                    case CALLER_RUNS:
+                        r.run();
+                        break;
+                }
+            }
+        };
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new ThreadPoolExecutor(laneThreads, laneThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, queueCapacity)), threadFactory, overflow);
+        }
+    }
+
+    public NetCommandExecutor(DispatchMode mode, int threads, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(mode, threads, queueCapacity, overflowPolicy, null);
+    }
+
+    /**
+     * Handles a command
+     *
+     * @param key        The ordering key, used with {@link DispatchMode#ORDERED_BY_KEY}
+     * @param mainThread If the command should be handled by the main thread executor
+     * @param task       Calls the handlers
+     * @return If the command was accepted, false when it was dropped.
+     */
+    boolean execute(Object key, boolean mainThread, Runnable task) {
+        if (mainThread && this.mainThreadExecutor != null) {
+            this.mainThreadExecutor.execute(task);
+            return true;
+        }
+        try {
+            laneFor(key).execute(task);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets how many commands were dropped because a queue was full
+     *
+     * @return The amount.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Gets how many commands are waiting to be handled
+     *
+     * @return The amount, over all lanes.
+     */
+    public int getQueued() {
+        int queued = 0;
+        for (ThreadPoolExecutor lane : this.lanes) {
+            queued += lane.getQueue().size();
+        }
+        return queued;
+    }
+
+    /**
+     * Stops accepting commands and waits for the queued ones to be handled.
+     *
+     * @param timeout The most time to wait
+     * @param unit    The unit of the timeout
+     * @return If everything finished in time.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadPoolExecutor lane : this.lanes) {
+            lane.shutdown();
+        }
+        for (ThreadPoolExecutor lane : this.lanes) {
+            if (!lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) return false;
+        }
+        return true;
+    }
+
+    private ThreadPoolExecutor laneFor(Object key) {
+        if (this.lanes.length == 1) return this.lanes[0];
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return this.lanes[(hash & Integer.MAX_VALUE) % this.lanes.length];
+    }
+}
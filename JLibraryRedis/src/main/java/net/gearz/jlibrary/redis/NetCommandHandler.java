@@ -7,7 +7,9 @@ import java.lang.annotation.Target;
 
 /**
  * The NetCommandHandler annotation. Put this above a method that is to handle a specific netcommand
- * All methods must return nothing (void), accept one argument of type HashMap, which will be the arguments.
+ * Methods accept one argument of type HashMap, which will be the arguments, parameters annotated with {@link NetArg},
+ * or one payload object whose fields are set from the arguments. What they return is sent back when the command is a
+ * {@link NetCommandRpc} call, so most return nothing (void).
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
@@ -25,4 +27,20 @@ public @interface NetCommandHandler {
      * @return The arguments.
      */
     public String[] args();
+
+    /**
+     * The argument whose value orders this command, when the dispatch uses {@link DispatchMode#ORDERED_BY_KEY}.
+     * Commands with the same value are handled in the order they were received.
+     *
+     * @return The name of the argument, or empty to order by the name of the command.
+     */
+    public String orderBy() default "";
+
+    /**
+     * Hands the command to the main thread executor of the dispatch's {@link NetCommandExecutor}, for handlers that
+     * use the Bukkit API.
+     *
+     * @return If the handlers must run on the main thread.
+     */
+    public boolean mainThread() default false;
 }
@@ -0,0 +1,20 @@
+package net.gearz.jlibrary.redis;
+
+import lombok.Data;
+
+import java.util.HashMap;
+
+/**
+ * A command decoded by a {@link NetCommandCodec}
+ */
+@Data
+public class NetCommandMessage {
+    /**
+     * The name of the command
+     */
+    private final String name;
+    /**
+     * The arguments, with maps and lists already converted
+     */
+    private final HashMap<String, Object> args;
+}
@@ -0,0 +1,217 @@
+package net.gearz.jlibrary.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes NetCommands in batches. Commands are queued and a background thread sends them through one
+ * {@link Pipeline} when the batch is full or the oldest command has waited long enough, so a burst of commands costs
+ * one round-trip instead of one each. Connections are taken from a {@link JedisPool}, normally the one of the
+ * {@link NetCommandDispatch}.
+ * <p/>
+ * Commands are published in the order they were queued. When the queue is full the sending thread waits for space.
+ * When a batch cannot be sent, its futures fail and the error is logged.
+ */
+public final class NetCommandPublisher {
+    private static final Logger logger = Logger.getLogger(NetCommandPublisher.class.getName());
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final long DEFAULT_LINGER_MILLIS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private final JedisPool pool;
+    /**
+     * The most commands sent in one pipeline
+     */
+    private final int batchSize;
+    /**
+     * The most time a command waits for its batch to fill
+     */
+    private final long lingerNanos;
+    private final BlockingQueue<PendingPublish> queue;
+    private final Thread flusher;
+    /**
+     * Channels, encoded
+     */
+    private final ConcurrentMap<String, byte[]> channels = new ConcurrentHashMap<>();
+    private volatile boolean shutdown = false;
+
+    /**
+     * Creates a publisher and starts its thread
+     *
+     * @param pool          Where connections are taken from
+     * @param batchSize     The most commands sent in one pipeline
+     * @param lingerMillis  The most time a command waits for its batch to fill
+     * @param queueCapacity The most commands waiting to be sent
+     */
+    public NetCommandPublisher(JedisPool pool, int batchSize, long lingerMillis, int queueCapacity) {
+        this.pool = pool;
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "NetCommand-Publisher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public NetCommandPublisher(JedisPool pool) {
+        this(pool, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Queues a message to be published
+     *
+     * @param channel The channel
+     * @param message The encoded command
+     * @return A future for the amount of servers that received it.
+     */
+    public Future<Long> publish(String channel, byte[] message) {
+        byte[] channelBytes = this.channels.get(channel);
+        if (channelBytes == null) {
+            channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+            this.channels.putIfAbsent(channel, channelBytes);
+        }
+        return enqueue(new PendingPublish(channelBytes, message));
+    }
+
+    /**
+     * Waits until everything queued so far is published.
+     *
+     * @param timeout The most time to wait
+     * @param unit    The unit of the timeout
+     * @return If everything was published in time.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            enqueue(new PendingPublish(null, null)).get(timeout, unit);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops accepting commands and publishes the queued ones.
+     *
+     * @param timeout The most time to wait
+     * @param unit    The unit of the timeout
+     * @return If everything was published in time.
+     * @throws InterruptedException When interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        this.shutdown = true;
+        this.flusher.join(unit.toMillis(timeout));
+        return !this.flusher.isAlive();
+    }
+
+    /**
+     * Gets how many commands are waiting to be published
+     *
+     * @return The amount.
+     */
+    public int getQueued() {
+        return this.queue.size();
+    }
+
+    private Future<Long> enqueue(PendingPublish pending) {
+        if (this.shutdown) throw new RejectedExecutionException("The net command publisher has been shut down");
+        try {
+            this.queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+        return pending;
+    }
+
+    private void flushLoop() {
+        List<PendingPublish> batch = new ArrayList<>(this.batchSize);
+        while (!this.shutdown || !this.queue.isEmpty()) {
+            try {
+                PendingPublish first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + this.lingerNanos;
+                while (batch.size() < this.batchSize) {
+                    this.queue.drainTo(batch, this.batchSize - batch.size());
+                    if (batch.size() >= this.batchSize) break;
+                    PendingPublish next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty()) continue;
+            }
+            send(batch);
+            batch.clear();
+        }
+    }
+
+    private void send(List<PendingPublish> batch) {
+        List<Response<Long>> responses = new ArrayList<>(batch.size());
+        Jedis jedis = null;
+        try {
+            jedis = this.pool.getResource();
+            Pipeline pipeline = jedis.pipelined();
+            for (PendingPublish pending : batch) {
+                responses.add(pending.channel == null ? null : pipeline.publish(pending.channel, pending.message));
+            }
+            pipeline.sync();
+            this.pool.returnResource(jedis);
+        } catch (RuntimeException e) {
+            if (jedis != null) this.pool.returnBrokenResource(jedis);
+            logger.log(Level.WARNING, "Cannot publish " + batch.size() + " net commands", e);
+            for (PendingPublish pending : batch) {
+                pending.fail(e);
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Response<Long> response = responses.get(i);
+            batch.get(i).complete(response == null ? Long.valueOf(0) : response.get());
+        }
+    }
+
+    /**
+     * A queued command, which is also its future. A command without a channel marks a {@link #flush(long, TimeUnit)}.
+     */
+    private static final class PendingPublish extends FutureTask<Long> {
+        private static final Callable<Long> NOTHING = new Callable<Long>() {
+            @Override
+            public Long call() {
+                return null;
+            }
+        };
+
+        private final byte[] channel;
+        private final byte[] message;
+
+        private PendingPublish(byte[] channel, byte[] message) {
+            super(NOTHING);
+            this.channel = channel;
+            this.message = message;
+        }
+
+        private void complete(Long receivers) {
+            set(receivers);
+        }
+
+        private void fail(Throwable cause) {
+            setException(cause);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package net.gearz.jlibrary.redis;
+
+import lombok.Getter;
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request and response on top of NetCommands. A call is a normal command with a correlation id and the reply channel
+ * of this node added to its arguments. Every server that handles it publishes what its {@link NetCommandHandler}
+ * returned to that channel, and the replies complete the future of the call.
+ * <p/>
+ * {@link #call(NetCommand, long, TimeUnit)} takes the first reply with a value. {@link #gather(NetCommand, int, long, TimeUnit)}
+ * collects replies until it has enough or the deadline passes.
+ */
+public final class NetCommandRpc {
+    /**
+     * The command replies are sent as
+     */
+    static final String REPLY_COMMAND = "_rpc_reply";
+    /**
+     * The argument holding the correlation id
+     */
+    static final String ID_KEY = "_rpc_id";
+    /**
+     * The argument holding the channel to reply to
+     */
+    static final String REPLY_CHANNEL_KEY = "_rpc_reply_to";
+    /**
+     * The argument of a reply holding the node that sent it
+     */
+    static final String NODE_KEY = "_rpc_node";
+    /**
+     * The argument of a reply holding the value
+     */
+    static final String VALUE_KEY = "value";
+    /**
+     * The argument of a reply holding why the command was not handled
+     */
+    static final String ERROR_KEY = "_rpc_error";
+
+    /**
+     * The name of this server
+     */
+    @Getter
+    private final String nodeId;
+    /**
+     * Where replies to the calls of this node are sent
+     */
+    @Getter
+    private final String replyChannel;
+    private final String channel;
+    private final NetCommandDispatch dispatch;
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentMap<String, PendingCall> pending = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timeouts;
+    private final NetDelegate replyDelegate;
+
+    /**
+     * Creates the RPC layer of a dispatch, and subscribes to the reply channel of this node.
+     *
+     * @param dispatch The dispatch, which sends and receives the commands
+     * @param channel  The channel calls are sent on
+     * @param nodeId   The name of this server, unique on the network
+     */
+    public NetCommandRpc(NetCommandDispatch dispatch, String channel, String nodeId) {
+        this.dispatch = dispatch;
+        this.channel = channel;
+        this.nodeId = nodeId;
+        this.replyChannel = channel + ".reply." + nodeId;
+        this.timeouts = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "NetCommand-RPC-Timeouts");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timeouts.setRemoveOnCancelPolicy(true);
+        dispatch.setRpc(this);
+        this.replyDelegate = new NetDelegate(this.replyChannel, dispatch);
+        Thread replyThread = new Thread(this.replyDelegate, "NetCommand-RPC-" + nodeId);
+        replyThread.setDaemon(true);
+        replyThread.start();
+    }
+
+    public NetCommandRpc(NetCommandDispatch dispatch, String channel) {
+        this(dispatch, channel, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Starts building a command to call, sent by the publisher of the dispatch
+     *
+     * @param name The name of the command
+     * @return The NetCommand object. Ready for building.
+     */
+    public NetCommand newCommand(String name) {
+        return NetCommand.beginBuilding(this.dispatch.getPublisher(), this.channel, name);
+    }
+
+    /**
+     * Sends a command and waits for the first reply that is not null, so servers can answer "no" by returning null.
+     *
+     * @param command The command, which is sent by this
+     * @param timeout The most time to wait for a reply
+     * @param unit    The unit of the timeout
+     * @return A future for what the handler returned. It is null when every reply in time was null, fails with a
+     * {@link TimeoutException} when there was no reply at all, and with an {@link IllegalArgumentException} as soon as
+     * a server replies that it could not handle the command or encode what it returned.
+     */
+    public Future<Object> call(NetCommand command, long timeout, TimeUnit unit) {
+        SingleCall call = new SingleCall();
+        send(command, call, timeout, unit);
+        return call;
+    }
+
+    /**
+     * Sends a command and collects the replies of every server that handles it
+     *
+     * @param command    The command, which is sent by this
+     * @param maxReplies How many replies are enough, or 0 to wait for the deadline
+     * @param timeout    The most time to wait for replies
+     * @param unit       The unit of the timeout
+     * @return A future for the replies, in the order they arrived. Completes at the deadline with those that arrived.
+     * Servers that could not handle the command reply with an {@link NetReply#getError()}.
+     */
+    public Future<List<NetReply>> gather(NetCommand command, int maxReplies, long timeout, TimeUnit unit) {
+        GatherCall call = new GatherCall(maxReplies);
+        send(command, call, timeout, unit);
+        return call;
+    }
+
+    /**
+     * Stops waiting for replies. Pending calls end as if their deadline had passed.
+     */
+    public void shutdown() {
+        this.replyDelegate.stop();
+        this.timeouts.shutdownNow();
+        for (String id : new ArrayList<>(this.pending.keySet())) {
+            PendingCall call = this.pending.remove(id);
+            if (call != null) call.expire();
+        }
+    }
+
+    private void send(NetCommand command, final PendingCall call, long timeout, TimeUnit unit) {
+        final String id = this.nodeId + ":" + this.nextId.incrementAndGet();
+        this.pending.put(id, call);
+        call.setTimeout(this.timeouts.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (pending.remove(id, call)) call.expire();
+            }
+        }, timeout, unit));
+        command.withArg(ID_KEY, id).withArg(REPLY_CHANNEL_KEY, this.replyChannel).send();
+    }
+
+    /**
+     * Receives a reply sent to this node
+     *
+     * @param args The arguments of the reply
+     */
+    void receiveReply(Map<String, Object> args) {
+        Object id = args.get(ID_KEY);
+        if (id == null) return;
+        PendingCall call = this.pending.get(id.toString());
+        if (call == null) return;
+        Object node = args.get(NODE_KEY);
+        Object value = args.get(VALUE_KEY);
+        Object error = args.get(ERROR_KEY);
+        if (JSONObject.NULL.equals(node)) node = null;
+        if (JSONObject.NULL.equals(value)) value = null;
+        if (JSONObject.NULL.equals(error)) error = null;
+        if (call.offer(new NetReply(node == null ? null : node.toString(), value, error == null ? null : error.toString()))) {
+            this.pending.remove(id.toString(), call);
+        }
+    }
+
+    private interface PendingCall {
+        void setTimeout(ScheduledFuture<?> timeout);
+
+        /**
+         * @return If the call is complete.
+         */
+        boolean offer(NetReply reply);
+
+        void expire();
+    }
+
+    private static final Callable<Object> NOTHING = new Callable<Object>() {
+        @Override
+        public Object call() {
+            return null;
+        }
+    };
+
+    private static final class SingleCall extends FutureTask<Object> implements PendingCall {
+        private ScheduledFuture<?> timeout;
+        /**
+         * A server replied, but its handler returned null
+         */
+        private boolean repliedNull = false;
+
+        private SingleCall() {
+            super(NOTHING);
+        }
+
+        @Override
+        public synchronized void setTimeout(ScheduledFuture<?> timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public synchronized boolean offer(NetReply reply) {
+            if (reply.getError() != null) {
+                //Every server gets the same arguments, so none of them will handle it
+                setException(new IllegalArgumentException(reply.getError()));
+                if (this.timeout != null) this.timeout.cancel(false);
+                return true;
+            }
+            if (reply.getValue() == null) {
+                this.repliedNull = true;
+                return false;
+            }
+            set(reply.getValue());
+            if (this.timeout != null) this.timeout.cancel(false);
+            return true;
+        }
+
+        @Override
+        public synchronized void expire() {
+            if (this.repliedNull) set(null);
+            else setException(new TimeoutException("No reply in time"));
+        }
+    }
+
+    private static final class GatherCall extends FutureTask<List<NetReply>> implements PendingCall {
+        private final int maxReplies;
+        private final List<NetReply> replies = new ArrayList<>();
+        private ScheduledFuture<?> timeout;
+
+        @SuppressWarnings("unchecked")
+        private GatherCall(int maxReplies) {
+            super((Callable) NOTHING);
+            this.maxReplies = maxReplies;
+        }
+
+        @Override
+        public synchronized void setTimeout(ScheduledFuture<?> timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public synchronized boolean offer(NetReply reply) {
+            if (isDone()) return true;
+            this.replies.add(reply);
+            if (this.maxReplies <= 0 || this.replies.size() < this.maxReplies) return false;
+            set(Collections.unmodifiableList(new ArrayList<>(this.replies)));
+            if (this.timeout != null) this.timeout.cancel(false);
+            return true;
+        }
+
+        @Override
+        public synchronized void expire() {
+            set(Collections.unmodifiableList(new ArrayList<>(this.replies)));
+        }
+    }
+}
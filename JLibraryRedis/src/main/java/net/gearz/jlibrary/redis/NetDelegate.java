@@ -1,18 +1,31 @@
 package net.gearz.jlibrary.redis;
 
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
-import org.json.JSONException;
-import org.json.JSONObject;
+import lombok.Setter;
+import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The NetDelegate is responsible for subscribing to the Jedis channel and dispatching
  * appropriate commands to the instance of the dispatch. It runs in it's own thread
+ * <p/>
+ * It subscribes in binary, so it can receive commands from any {@link NetCommandCodec}. When the connection is lost it
+ * subscribes again, waiting longer after each failed attempt, until {@link #stop()} is called. Commands sent while it
+ * is not subscribed are lost, so {@link #setOnResubscribe(Runnable)} can be used to catch up on state afterwards.
  */
 @RequiredArgsConstructor
-public class NetDelegate extends JedisPubSub implements Runnable {
+public class NetDelegate extends BinaryJedisPubSub implements Runnable {
     /**
      * The name of the channel to subscribe to. Used to send and recieve data. Do not get these out of sync, or this application
      * will not work whatsoever.
@@ -23,43 +36,201 @@ public class NetDelegate extends JedisPubSub implements Runnable {
     @NonNull
     private NetCommandDispatch dispatch;
 
+    /**
+     * The channel, encoded
+     */
+    private byte[] channelBytes;
+    /**
+     * The wait before the first reconnect, in milliseconds. Doubled after each failed attempt.
+     */
+    @Getter
+    @Setter
+    private long minBackoffMillis = 100;
+    /**
+     * The longest wait between reconnects, in milliseconds
+     */
+    @Getter
+    @Setter
+    private long maxBackoffMillis = 30000;
+    /**
+     * Called on the subscriber thread each time it has subscribed again after losing the connection. May be null.
+     */
+    @Getter
+    @Setter
+    private volatile Runnable onResubscribe;
+    /**
+     * The health of the subscription
+     */
+    @Getter
+    private volatile SubscriberState state = SubscriberState.CONNECTING;
+    /**
+     * The error that ended the last subscription, or null if it has never failed.
+     */
+    @Getter
+    private volatile Exception lastError;
+    /**
+     * When the subscription was last made, or 0 if never.
+     */
+    @Getter
+    private volatile long subscribedSince;
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    /**
+     * Wakes the subscriber thread from a backoff when stopped
+     */
+    private final CountDownLatch stopLatch = new CountDownLatch(1);
+    private volatile boolean stopped = false;
+    /**
+     * Failed attempts since the last subscription, only used on the subscriber thread
+     */
+    private int attempts = 0;
+
     @Override
-    public void onMessage(String chan, String data) {
-        if (!chan.equals(CHAN)) return;
-        JSONObject obj;
+    public void onMessage(byte[] chan, byte[] data) {
+        if (!Arrays.equals(chan, getChannelBytes())) return;
+        this.received.incrementAndGet();
         try {
-            obj = new JSONObject(data);
-        } catch (JSONException ex) {
-            ex.printStackTrace();
-            return;
+            this.dispatch.handleMessage(data);
+        } catch (RuntimeException e) {
+            //Undecodable messages, and anything else thrown here, which would end the subscription
+            this.dropped.incrementAndGet();
+            e.printStackTrace();
         }
-        this.dispatch.handleCommand(obj);
+    }
+
+    /**
+     * Handles a message received as text
+     *
+     * @param chan The channel
+     * @param data The message
+     */
+    public void onMessage(String chan, String data) {
+        onMessage(chan.getBytes(StandardCharsets.UTF_8), data.getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
-    public void onPMessage(String s, String s2, String s3) {
+    public void onPMessage(byte[] s, byte[] s2, byte[] s3) {
     }
 
     @Override
-    public void onSubscribe(String s, int i) {
+    public void onSubscribe(byte[] s, int i) {
+        if (this.stopped) {
+            unsubscribeQuietly();
+            return;
+        }
+        boolean resubscribed = this.subscribedSince != 0;
+        this.attempts = 0;
+        this.subscribedSince = System.currentTimeMillis();
+        this.state = SubscriberState.SUBSCRIBED;
+        if (resubscribed) this.reconnects.incrementAndGet();
+        Runnable onResubscribe = this.onResubscribe;
+        if (resubscribed && onResubscribe != null) {
+            try {
+                onResubscribe.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     @Override
-    public void onUnsubscribe(String s, int i) {
+    public void onUnsubscribe(byte[] s, int i) {
     }
 
     @Override
-    public void onPUnsubscribe(String s, int i) {
+    public void onPUnsubscribe(byte[] s, int i) {
     }
 
     @Override
-    public void onPSubscribe(String s, int i) {
+    public void onPSubscribe(byte[] s, int i) {
     }
 
     @Override
     public void run() {
-        Jedis jedis = dispatch.getPool().getResource();
-        jedis.subscribe(this, CHAN);
-        dispatch.getPool().returnResource(jedis);
+        JedisPool pool = dispatch.getPool();
+        while (!this.stopped) {
+            Jedis jedis = null;
+            try {
+                jedis = pool.getResource();
+                jedis.subscribe(this, getChannelBytes());
+                pool.returnResource(jedis);
+            } catch (JedisException e) {
+                if (jedis != null) pool.returnBrokenResource(jedis);
+                this.lastError = e;
+            }
+            if (this.stopped) break;
+            this.state = SubscriberState.RECONNECTING;
+            try {
+                this.stopLatch.await(backoff(this.attempts++), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        this.state = SubscriberState.STOPPED;
+    }
+
+    /**
+     * Unsubscribes for good. The thread running this delegate ends once the subscription is closed.
+     */
+    public void stop() {
+        this.stopped = true;
+        this.stopLatch.countDown();
+        unsubscribeQuietly();
+    }
+
+    /**
+     * @return If commands are being received.
+     */
+    public boolean isHealthy() {
+        return this.state == SubscriberState.SUBSCRIBED;
+    }
+
+    /**
+     * @return The times the subscription was lost and made again.
+     */
+    public long getReconnects() {
+        return this.reconnects.get();
+    }
+
+    /**
+     * @return The messages received on the channel.
+     */
+    public long getReceived() {
+        return this.received.get();
+    }
+
+    /**
+     * @return The messages received that could not be decoded, or whose handling failed with an exception.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * The wait before a reconnect, with some jitter so the servers of a network do not all reconnect at once.
+     *
+     * @param attempt The failed attempts so far
+     * @return The wait, in milliseconds.
+     */
+    private long backoff(int attempt) {
+        long backoff = this.minBackoffMillis << Math.min(attempt, 20);
+        if (backoff <= 0 || backoff > this.maxBackoffMillis) backoff = this.maxBackoffMillis;
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private void unsubscribeQuietly() {
+        if (!isSubscribed()) return;
+        try {
+            unsubscribe();
+        } catch (JedisException e) {
+            //The connection is gone already
+        }
+    }
+
+    private byte[] getChannelBytes() {
+        if (this.channelBytes == null) this.channelBytes = CHAN.getBytes(StandardCharsets.UTF_8);
+        return this.channelBytes;
     }
 }
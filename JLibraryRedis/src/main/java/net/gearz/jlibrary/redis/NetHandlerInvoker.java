@@ -0,0 +1,277 @@
+package net.gearz.jlibrary.redis;
+
+import org.json.JSONObject;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link NetCommandHandler} method bound to its object when it is registered. The method is called through a
+ * {@link MethodHandle}, and each of its parameters has a binder that takes its value from the arguments of the command.
+ * <p/>
+ * A handler can take the arguments in three ways:
+ * <ul>
+ * <li>One {@link HashMap} (or {@link Map}) parameter, which gets all arguments as they were received.</li>
+ * <li>Parameters annotated with {@link NetArg}, which get one argument each.</li>
+ * <li>One parameter of a payload class with a no-argument constructor, whose fields are set from the arguments.</li>
+ * </ul>
+ */
+final class NetHandlerInvoker {
+    private static final MethodType SPREAD_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    /**
+     * The payload classes we have already analyzed
+     */
+    private static final ConcurrentMap<Class<?>, PayloadBinder> payloadBinders = new ConcurrentHashMap<>();
+
+    private final Object target;
+    private final Method method;
+    /**
+     * Takes an Object[] of the arguments and returns the result, or null for void methods
+     */
+    private final MethodHandle handle;
+    private final ArgumentBinder[] binders;
+
+    private NetHandlerInvoker(Object target, Method method, MethodHandle handle, ArgumentBinder[] binders) {
+        this.target = target;
+        this.method = method;
+        this.handle = handle;
+        this.binders = binders;
+    }
+
+    /**
+     * Binds a handler method
+     *
+     * @param target The object the method is called on
+     * @param method The method
+     * @return The invoker, or null if the parameters of the method cannot be bound.
+     */
+    static NetHandlerInvoker bind(Object target, Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        ArgumentBinder[] binders = new ArgumentBinder[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            NetArg netArg = null;
+            for (Annotation annotation : parameterAnnotations[i]) {
+                if (annotation instanceof NetArg) netArg = (NetArg) annotation;
+            }
+            if (netArg != null && !netArg.value().equals("")) {
+                binders[i] = new NamedBinder(netArg.value(), parameterTypes[i]);
+            } else if (parameterTypes.length != 1) {
+                return null;
+            } else if (parameterTypes[i].isAssignableFrom(HashMap.class)) {
+                binders[i] = MapBinder.INSTANCE;
+            } else {
+                PayloadBinder payloadBinder = payloadBinderFor(parameterTypes[i]);
+                if (payloadBinder == null) return null;
+                binders[i] = payloadBinder;
+            }
+        }
+        try {
+            method.setAccessible(true);
+            MethodHandle handle = lookup.unreflect(method);
+            if (!Modifier.isStatic(method.getModifiers())) handle = handle.bindTo(target);
+            handle = handle.asSpreader(Object[].class, parameterTypes.length).asType(SPREAD_TYPE);
+            return new NetHandlerInvoker(target, method, handle, binders);
+        } catch (IllegalAccessException | SecurityException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Calls the handler
+     *
+     * @param args The arguments of the command
+     * @return What the handler returned.
+     * @throws Throwable Anything the handler throws, or an {@link IllegalArgumentException} when an argument cannot
+     *                   be converted.
+     */
+    Object invoke(HashMap<String, Object> args) throws Throwable {
+        Object[] values = new Object[this.binders.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = this.binders[i].bind(args);
+        }
+        return (Object) this.handle.invokeExact(values);
+    }
+
+    Object getTarget() {
+        return this.target;
+    }
+
+    Method getMethod() {
+        return this.method;
+    }
+
+    private static PayloadBinder payloadBinderFor(Class<?> type) {
+        PayloadBinder binder = payloadBinders.get(type);
+        if (binder != null) return binder;
+        if (type.isPrimitive() || type.isInterface() || type.isArray() || Modifier.isAbstract(type.getModifiers()))
+            return null;
+        if (type.getName().startsWith("java.")) return null;
+        try {
+            binder = new PayloadBinder(type);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+        PayloadBinder existing = payloadBinders.putIfAbsent(type, binder);
+        return existing == null ? binder : existing;
+    }
+
+    /**
+     * Converts an argument to the type it is bound to
+     *
+     * @param value The received value
+     * @param type  The type
+     * @return The converted value.
+     * @throws IllegalArgumentException When the value cannot be converted.
+     */
+    @SuppressWarnings("unchecked")
+    static Object convert(Object value, Class<?> type) {
+        if (JSONObject.NULL.equals(value)) value = null;
+        if (value == null) return type.isPrimitive() ? defaultValue(type) : null;
+        if (type.isPrimitive()) type = boxed(type);
+        if (type.isInstance(value)) return value;
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == Integer.class) return number.intValue();
+            if (type == Long.class) return number.longValue();
+            if (type == Double.class) return number.doubleValue();
+            if (type == Float.class) return number.floatValue();
+            if (type == Short.class) return number.shortValue();
+            if (type == Byte.class) return number.byteValue();
+        }
+        if (type == String.class) return value.toString();
+        if (value instanceof String) {
+            String string = (String) value;
+            if (type == Boolean.class) return Boolean.valueOf(string);
+            if (type == Character.class && string.length() == 1) return string.charAt(0);
+            if (type == UUID.class) return UUID.fromString(string);
+            if (type.isEnum()) return Enum.valueOf((Class<Enum>) type, string);
+        }
+        if (value instanceof Map) {
+            PayloadBinder binder = payloadBinderFor(type);
+            if (binder != null) {
+                try {
+                    return binder.bind((Map<String, Object>) value);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalArgumentException("Cannot create " + type.getName(), e);
+                }
+            }
+        }
+        throw new IllegalArgumentException("Cannot convert " + value.getClass().getName() + " to " + type.getName());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0F;
+        if (type == double.class) return 0D;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        return 0;
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        if (type == boolean.class) return Boolean.class;
+        if (type == char.class) return Character.class;
+        if (type == long.class) return Long.class;
+        if (type == float.class) return Float.class;
+        if (type == double.class) return Double.class;
+        if (type == short.class) return Short.class;
+        if (type == byte.class) return Byte.class;
+        return Integer.class;
+    }
+
+    private interface ArgumentBinder {
+        Object bind(Map<String, Object> args) throws Throwable;
+    }
+
+    /**
+     * Gives all arguments
+     */
+    private static final class MapBinder implements ArgumentBinder {
+        private static final MapBinder INSTANCE = new MapBinder();
+
+        @Override
+        public Object bind(Map<String, Object> args) {
+            return args;
+        }
+    }
+
+    /**
+     * Gives one argument
+     */
+    private static final class NamedBinder implements ArgumentBinder {
+        private final String name;
+        private final Class<?> type;
+
+        private NamedBinder(String name, Class<?> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public Object bind(Map<String, Object> args) {
+            return convert(args.get(this.name), this.type);
+        }
+    }
+
+    /**
+     * Creates a payload object and sets its fields
+     */
+    private static final class PayloadBinder implements ArgumentBinder {
+        private final MethodHandle constructor;
+        private final String[] keys;
+        private final Class<?>[] types;
+        private final MethodHandle[] setters;
+
+        private PayloadBinder(Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+            java.lang.reflect.Constructor<?> declaredConstructor = type.getDeclaredConstructor();
+            declaredConstructor.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(declaredConstructor).asType(MethodType.methodType(Object.class));
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || Modifier.isTransient(modifiers))
+                        continue;
+                    fields.add(field);
+                }
+            }
+            this.keys = new String[fields.size()];
+            this.types = new Class<?>[fields.size()];
+            this.setters = new MethodHandle[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                NetArg netArg = field.getAnnotation(NetArg.class);
+                this.keys[i] = netArg == null || netArg.value().equals("") ? field.getName() : netArg.value();
+                this.types[i] = field.getType();
+                field.setAccessible(true);
+                this.setters[i] = lookup.unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            }
+        }
+
+        @Override
+        public Object bind(Map<String, Object> args) throws Throwable {
+            Object payload = (Object) this.constructor.invokeExact();
+            for (int i = 0; i < this.keys.length; i++) {
+                if (!args.containsKey(this.keys[i])) continue;
+                this.setters[i].invokeExact(payload, convert(args.get(this.keys[i]), this.types[i]));
+            }
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package net.gearz.jlibrary.redis;
+
+import lombok.Data;
+
+/**
+ * A reply to a {@link NetCommandRpc} call
+ */
+@Data
+public class NetReply {
+    /**
+     * The node that replied, or null if it has no {@link NetCommandRpc}
+     */
+    private final String nodeId;
+    /**
+     * What its handler returned
+     */
+    private final Object value;
+    /**
+     * Why the command was not handled, or null if it was
+     */
+    private final String error;
+}
@@ -0,0 +1,23 @@
+package net.gearz.jlibrary.redis;
+
+/**
+ * What a {@link NetCommandExecutor} does with a received command when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * The subscriber thread waits for space. Nothing is lost, but Redis buffers the messages meanwhile.
+     */
+    BLOCK,
+    /**
+     * The new command is dropped.
+     */
+    DROP_NEWEST,
+    /**
+     * The oldest waiting command is dropped to make space for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * The command is handled on the subscriber thread, like when there is no executor.
+     */
+    CALLER_RUNS
+}
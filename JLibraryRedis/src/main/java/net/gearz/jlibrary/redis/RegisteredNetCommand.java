@@ -3,10 +3,11 @@ package net.gearz.jlibrary.redis;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents a registered NetCommand.
@@ -18,15 +19,19 @@ public class RegisteredNetCommand {
      */
     @Getter
     private List<String> args;
+    /**
+     * The same arguments, checked against every received command.
+     */
+    private final String[] requiredArgs;
     /**
      * Represents the name of the command
      */
     @Getter
     private String name;
     /**
-     * Associates handlers to their methods.
+     * The handlers, bound to their objects.
      */
-    private Map<Object, Method> handlers;
+    private final List<NetHandlerInvoker> handlers = new CopyOnWriteArrayList<>();
 
     /**
      * Creates a RegisteredNetCommand
@@ -37,8 +42,11 @@ public class RegisteredNetCommand {
      */
     public RegisteredNetCommand(String name, List<String> args, Map<Object, Method> handlers) {
         this.args = args;
+        this.requiredArgs = args.toArray(new String[args.size()]);
         this.name = name;
-        this.handlers = handlers;
+        for (Map.Entry<Object, Method> handler : handlers.entrySet()) {
+            registerHandler(handler.getKey(), handler.getValue());
+        }
     }
 
     /**
@@ -46,24 +54,57 @@ public class RegisteredNetCommand {
      *
      * @param o The object which to execute the method on.
      * @param m The method.
+     * @throws IllegalArgumentException When the parameters of the method cannot be bound, see {@link NetArg}.
      */
     public void registerHandler(Object o, Method m) {
-        this.handlers.put(o, m);
+        NetHandlerInvoker invoker = NetHandlerInvoker.bind(o, m);
+        if (invoker == null) throw new IllegalArgumentException("Cannot bind the parameters of " + m);
+        registerHandler(invoker);
+    }
+
+    /**
+     * Registers a bound handler. An object only has one handler for each command, so this replaces any other handler
+     * of the same object.
+     *
+     * @param invoker The handler
+     */
+    void registerHandler(NetHandlerInvoker invoker) {
+        for (NetHandlerInvoker handler : this.handlers) {
+            if (handler.getTarget().equals(invoker.getTarget())) this.handlers.remove(handler);
+        }
+        this.handlers.add(invoker);
+    }
+
+    /**
+     * Checks that a command has all arguments this command accepts
+     *
+     * @param data Arguments of the NetCommand.
+     * @return If none is missing.
+     */
+    public boolean hasArgs(Map<String, Object> data) {
+        for (String arg : this.requiredArgs) {
+            if (!data.containsKey(arg)) return false;
+        }
+        return true;
     }
 
     /**
      * Calls all handlers for the method
      *
      * @param data Arguments of the NetCommand.
+     * @return The first value returned by a handler, which is the reply to a {@link NetCommandRpc} call.
      */
-    public void callHandlers(Map<String, Object> data) {
-        for (Map.Entry<Object, Method> objectMethodEntry : this.handlers.entrySet()) {
+    public Object callHandlers(Map<String, Object> data) {
+        HashMap<String, Object> args = data instanceof HashMap ? (HashMap<String, Object>) data : new HashMap<>(data);
+        Object result = null;
+        for (NetHandlerInvoker handler : this.handlers) {
             try {
-                objectMethodEntry.getValue().invoke(objectMethodEntry.getKey(), data);
-            } catch (IllegalAccessException | InvocationTargetException e) {
+                Object returned = handler.invoke(args);
+                if (result == null) result = returned;
+            } catch (Throwable e) {
                 e.printStackTrace();
             }
         }
-
+        return result;
     }
 }
@@ -0,0 +1,71 @@
+package net.gearz.jlibrary.redis;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Remembers the strings recently decoded from UTF-8, so command names and argument keys that are received over and
+ * over are not created again for every message. It is a fixed size table where a new string replaces whatever was in
+ * its slot, so it never grows. Safe to use from several threads.
+ */
+final class StringInterner {
+    /**
+     * Longer strings are rarely repeated, and not worth comparing.
+     */
+    private static final int MAX_LENGTH = 64;
+
+    private final Entry[] entries;
+    private final int mask;
+
+    /**
+     * Creates an interner
+     *
+     * @param size The amount of slots, rounded up to a power of two
+     */
+    StringInterner(int size) {
+        int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.entries = new Entry[slots];
+        this.mask = slots - 1;
+    }
+
+    /**
+     * Decodes a UTF-8 string, returning the same instance as last time when it was decoded before.
+     *
+     * @param data   The bytes
+     * @param offset Where the string starts
+     * @param length The length in bytes
+     * @return The string.
+     */
+    String intern(byte[] data, int offset, int length) {
+        if (length > MAX_LENGTH) return new String(data, offset, length, StandardCharsets.UTF_8);
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & this.mask;
+        Entry entry = this.entries[slot];
+        if (entry != null && entry.matches(data, offset, length)) return entry.string;
+        String string = new String(data, offset, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, offset, bytes, 0, length);
+        this.entries[slot] = new Entry(bytes, string);
+        return string;
+    }
+
+    private static final class Entry {
+        private final byte[] bytes;
+        private final String string;
+
+        private Entry(byte[] bytes, String string) {
+            this.bytes = bytes;
+            this.string = string;
+        }
+
+        private boolean matches(byte[] data, int offset, int length) {
+            if (this.bytes.length != length) return false;
+            for (int i = 0; i < length; i++) {
+                if (this.bytes[i] != data[offset + i]) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package net.gearz.jlibrary.redis;
+
+/**
+ * The health of a {@link NetDelegate}'s subscription.
+ */
+public enum SubscriberState {
+    /**
+     * Connecting for the first time.
+     */
+    CONNECTING,
+    /**
+     * Subscribed, and receiving commands.
+     */
+    SUBSCRIBED,
+    /**
+     * The connection was lost. Commands sent until it is back are not received.
+     */
+    RECONNECTING,
+    /**
+     * Stopped with {@link NetDelegate#stop()}, it will not reconnect.
+     */
+    STOPPED
+}